@@ -2,15 +2,17 @@ package io.miniapp.core.openplatform
 
 import android.annotation.SuppressLint
 import android.content.Context
-import io.miniapp.core.openplatform.common.data.LRUSharedPreferencesCache
+import io.miniapp.core.openplatform.common.data.IndexedDiskCache
 import io.miniapp.core.openplatform.common.data.OpenServiceRepository
 import io.miniapp.core.openplatform.common.data.SessionProvider
 import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.TimeoutCancellationException
-import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.filter
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeout
 import retrofit2.HttpException
@@ -20,10 +22,17 @@ import kotlin.concurrent.withLock
 internal object AuthManager {
     private val _cacheKey = "__open_platform_verifier_data"
     @SuppressLint("StaticFieldLeak")
+    @Volatile
     private var _sessionProvider: SessionProvider? = null
     private val sessionLock = ReentrantLock()
 
-    private val refreshState = MutableStateFlow(false)
+    // The refresh in flight, every caller needing a new token awaits this one instead of parking a thread.
+    // Waiters only see its result, so ending the refresh job never cancels them
+    @Volatile
+    private var refreshing: CompletableDeferred<Result<String?>>? = null
+    private var refreshJob: Job? = null
+    private var refreshGeneration = 0
+    private val refreshScope = MiniAppExecutors.newScope(MiniAppExecutors.bridge)
 
     private val repository by lazy {
         OpenServiceRepository.getInstance()
@@ -52,7 +61,7 @@ internal object AuthManager {
         sessionLock.withLock {
             if (this._sessionProvider == null) {
                 this._sessionProvider = SessionProvider(context)
-                LRUSharedPreferencesCache.init(context)
+                IndexedDiskCache.init(context)
             }
         }
     }
@@ -64,43 +73,101 @@ internal object AuthManager {
     }
 
     @ThrowsIllegalStateException
-    suspend fun signIn(): Result<String?> = withContext(Dispatchers.IO) {
+    suspend fun signIn(): Result<String?> = withContext(MiniAppExecutors.bridge) {
         withTimeout(60_000) {
             fetchToken()
         }
     }
 
-    private suspend fun waitForRequest() = withContext(Dispatchers.IO) {
-        try {
-            withTimeout(60_000) {
-                refreshState
-                    .filter { !it }
-                    .first()
+    /**
+     * Token to send with the next request. Suspends on the shared refresh when there is no
+     * usable token, and starts a refresh in the background when it is about to expire.
+     */
+    suspend fun awaitToken(): String? {
+        val provider = _sessionProvider ?: return null
+        if (provider.isAuth() && !provider.isTokenExpired()) {
+            if (provider.isTokenExpirationTime()) {
+                startRefresh()
             }
-        } catch (e: TimeoutCancellationException) {
-            cleanupRefreshOperation()
-            e.printStackTrace()
+            return provider.token
         }
+        return refreshToken()
     }
 
-    private fun cleanupRefreshOperation() {
-        refreshState.value = false
+    /**
+     * A request sent with [staleToken] was rejected. Drops that token and starts one refresh
+     * for the whole burst of rejected requests; returns without waiting for it.
+     */
+    fun onUnauthorized(staleToken: String?) {
+        synchronized(this) {
+            if (getToken() != staleToken) {
+                // Another request already replaced it
+                return
+            }
+            clearToken()
+            startRefresh()
+        }
     }
 
-    private suspend fun setRefreshOperation() {
-        refreshState.value = true
+    /**
+     * Token replacing [staleToken], refreshing if nobody has done so yet.
+     */
+    suspend fun refreshAfterUnauthorized(staleToken: String?): String? {
+        onUnauthorized(staleToken)
+        return refreshToken()
+    }
+
+    private fun startRefresh(): Deferred<Result<String?>> {
+        synchronized(this) {
+            refreshing?.takeIf { it.isActive }?.also {
+                return it
+            }
+            val generation = ++refreshGeneration
+            val result = CompletableDeferred<Result<String?>>()
+            refreshing = result
+            refreshJob = refreshScope.launch {
+                LogTimber.tag("AuthManager").d("token refresh #$generation")
+                val tokenResult = performAuth(true)
+                synchronized(this@AuthManager) {
+                    // Signed out meanwhile, the waiters already failed
+                    if (generation != refreshGeneration) {
+                        return@launch
+                    }
+                    when (tokenResult) {
+                        is AuthResult.Success -> {
+                            _sessionProvider?.token = tokenResult.token
+                            result.complete(Result.success(tokenResult.token))
+                        }
+                        is AuthResult.Error -> result.complete(Result.failure(tokenResult.exception))
+                    }
+                }
+            }.also { job ->
+                job.invokeOnCompletion { cause ->
+                    result.complete(Result.failure(cause ?: IllegalStateException("Authentication failed")))
+                }
+            }
+            return result
+        }
+    }
+
+    private suspend fun fetchToken(): Result<String?> {
+        val provider = _sessionProvider
+        if (provider != null && provider.isAuth() && !provider.isTokenExpired()) {
+            return Result.success(provider.token)
+        }
+        return startRefresh().await()
     }
 
     private suspend fun getIdToken(forceRefresh: Boolean): String {
         val idTokenProvider = this.idTokenProvider ?: throw IllegalStateException("ID Token provider not configured")
         return if (forceRefresh) {
-            LRUSharedPreferencesCache.saveValue(_cacheKey, null)
+            IndexedDiskCache.saveValue(_cacheKey, null)
             idTokenProvider.invoke().also {
-                LRUSharedPreferencesCache.saveValue(_cacheKey, it)
+                IndexedDiskCache.saveValue(_cacheKey, it)
             }
         } else {
-            LRUSharedPreferencesCache.getValue(_cacheKey) ?: idTokenProvider.invoke().also {
-                LRUSharedPreferencesCache.saveValue(_cacheKey, it)
+            IndexedDiskCache.getValue(_cacheKey) ?: idTokenProvider.invoke().also {
+                IndexedDiskCache.saveValue(_cacheKey, it)
             }
         }
     }
@@ -133,59 +200,36 @@ internal object AuthManager {
         return AuthResult.Error(IllegalStateException("Authentication failed"))
     }
 
-    private suspend fun fetchToken(): Result<String?> = withContext(Dispatchers.IO) {
-        waitForRequest()
-
-        val isAuthenticated = sessionLock.withLock { isAuth() }
-
-        setRefreshOperation()
-
-        try {
-            if (isAuthenticated) {
-                val token = sessionLock.withLock { _sessionProvider?.token }
-                Result.success(token)
-            } else {
-                when (val tokenResult = performAuth(true)) {
-                    is AuthResult.Success -> {
-                        sessionLock.withLock {
-                            _sessionProvider?.token = tokenResult.token
-                        }
-                        Result.success(tokenResult.token)
-                    }
-                    is AuthResult.Error -> Result.failure(tokenResult.exception)
-                }
-            }
-        } finally {
-            cleanupRefreshOperation()
-        }
-    }
-
     fun isAuth(): Boolean {
-        return sessionLock.withLock {
-            true == _sessionProvider?.isAuth()
-        }
+        return true == _sessionProvider?.isAuth()
     }
 
     fun getToken(): String? {
-        return sessionLock.withLock {
-            _sessionProvider?.token
-        }
+        return _sessionProvider?.token
     }
 
     fun clearToken() {
-        sessionLock.withLock {
-            _sessionProvider?.token = null
-        }
+        _sessionProvider?.token = null
     }
 
+    /**
+     * Drop the session. Requests waiting for a refresh fail with [SignedOutException] rather
+     * than being cancelled, their own coroutines keep running.
+     */
     suspend fun signOut() {
-        sessionLock.withLock {
-            _sessionProvider?.token = null
+        synchronized(this) {
+            refreshGeneration++
+            refreshing?.complete(Result.failure(SignedOutException()))
+            refreshing = null
+            refreshJob?.cancel()
+            refreshJob = null
+            clearToken()
         }
-        cleanupRefreshOperation()
-        LRUSharedPreferencesCache.saveValue(_cacheKey, null)
+        IndexedDiskCache.saveValue(_cacheKey, null)
     }
 
+    class SignedOutException : IllegalStateException("Signed out")
+
     private sealed class AuthResult {
         data class Success(val token: String) : AuthResult()
         data class Error(val exception: Throwable) : AuthResult()
@@ -14,7 +14,9 @@ import io.miniapp.core.openplatform.bot.BotServiceImpl
 import io.miniapp.core.openplatform.miniapp.MiniAppService
 import io.miniapp.core.openplatform.miniapp.MiniAppServiceImpl
 import io.miniapp.core.openplatform.miniapp.ui.webview.WebAppLruCache
-import kotlinx.coroutines.MainScope
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewPool
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 
@@ -84,7 +86,7 @@ internal class OpenPlatformPluginImpl(private val  pluginName: @PluginName Strin
             return
         }
 
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch(Dispatchers.Main) {
             val result = AuthManager.signIn()
             result.fold(
                 onSuccess = {
@@ -122,6 +124,7 @@ internal class OpenPlatformPluginImpl(private val  pluginName: @PluginName Strin
 
     override fun unLoad() {
         WebAppLruCache.removeAll()
+        WebViewPool.clear()
     }
 
 }
\ No newline at end of file
@@ -4,8 +4,8 @@ import androidx.annotation.Keep
 import io.miniapp.core.openplatform.common.apis.data.InlineButtonCallbackParams
 import io.miniapp.core.openplatform.common.data.OpenServiceRepository
 import io.miniapp.core.openplatform.miniapp.DataResult
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
 import io.miniapp.core.openplatform.miniapp.utils.toInfo
-import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
@@ -74,7 +74,7 @@ internal class BotServiceImpl : BotService {
     }
 
     override suspend fun getBotInfo(botId: String): DataResult<BotInfo?> =  suspendCancellableCoroutine { continuation -> run {
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.getBotInfo(botId)
                 .catch {
                     it.printStackTrace()
@@ -86,7 +86,7 @@ internal class BotServiceImpl : BotService {
     }
 
     override suspend fun inlineButtonCallback(params: CallbackParams): DataResult<Unit> =  suspendCancellableCoroutine { continuation -> run {
-            MainScope().launch {
+            MiniAppExecutors.sdkScope.launch {
                 repository.inlineCallback(InlineButtonCallbackParams(botId = params.botId, chatId = params.chatId, messageId = params.messageId, callbackData = params.callbackData))
                     .catch {
                         it.printStackTrace()
@@ -16,8 +16,10 @@ import io.miniapp.core.openplatform.common.apis.data.LaunchParams
 import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
 import io.miniapp.core.openplatform.common.apis.data.MiniAppResponse
 import io.miniapp.core.openplatform.common.apis.data.VerifierDto
+import retrofit2.Response
 import retrofit2.http.Body
 import retrofit2.http.GET
+import retrofit2.http.Header
 import retrofit2.http.POST
 import retrofit2.http.Path
 import retrofit2.http.Query
@@ -37,7 +39,7 @@ internal interface OpenServiceApi {
     suspend fun getBotInfo(@Path("idOrName") idOrName: String): BotDto
 
     /**
-     * request mini app launch url
+     * request mini app launch url, idempotent so it is retried like a GET
      */
     @POST(ApiConstants.URI_REQUEST_LAUNCH_URL)
     suspend fun launch(@Body params: LaunchParams): LaunchMiniAppDto
@@ -48,24 +50,56 @@ internal interface OpenServiceApi {
     @GET(ApiConstants.URI_MINI_APP_INFO_BY_ID)
     suspend fun getMiniAppInfo(@Path("id") id: String): MiniAppDto
 
+    /**
+     * revalidate mini app info by id, a 304 response has no body
+     */
+    @GET(ApiConstants.URI_MINI_APP_INFO_BY_ID)
+    suspend fun getMiniAppInfoIfChanged(
+        @Path("id") id: String,
+        @Header("If-None-Match") etag: String?,
+        @Header("If-Modified-Since") lastModified: String?
+    ): Response<MiniAppDto>
+
     /**
      * request mini app info by names
      */
     @GET(ApiConstants.URI_REQUEST_APP_INFO_BY_NAME)
     suspend fun getMiniAppInfo(@Path("idOrName") botIdOrName: String, @Path("appName") appName: String ): MiniAppDto
 
+    /**
+     * request mini app info by names, keeping the response headers
+     */
+    @GET(ApiConstants.URI_REQUEST_APP_INFO_BY_NAME)
+    suspend fun getMiniAppInfoWithHeaders(@Path("idOrName") botIdOrName: String, @Path("appName") appName: String): Response<MiniAppDto>
+
     /**
      * batch request mini-app
      */
     @GET(ApiConstants.URI_BATCH_MINI_APP)
     suspend fun batchGetMiniApp(@Query("id") appIds: List<String>): MiniAppResponse
 
+    /**
+     * batch request mini-app, keeping the response headers
+     */
+    @GET(ApiConstants.URI_BATCH_MINI_APP)
+    suspend fun batchGetMiniAppWithHeaders(@Query("id") appIds: List<String>): Response<MiniAppResponse>
+
     /**
      * request d app info by id
      */
     @GET(ApiConstants.URI_D_APP_INFO_BY_ID)
     suspend fun getDAppInfo(@Path("id") id: String): DAppDto
 
+    /**
+     * revalidate d app info by id, a 304 response has no body
+     */
+    @GET(ApiConstants.URI_D_APP_INFO_BY_ID)
+    suspend fun getDAppInfoIfChanged(
+        @Path("id") id: String,
+        @Header("If-None-Match") etag: String?,
+        @Header("If-Modified-Since") lastModified: String?
+    ): Response<DAppDto>
+
     /**
      * request d app info by id
      */
@@ -80,7 +80,19 @@ internal data class AppSettings(
 
 
     @Json(name = "disable_cache")
-    val disableCache: Boolean?
+    val disableCache: Boolean?,
+
+    /**
+     * Seconds a cached page stays usable after it was loaded, client default when absent
+     */
+    @Json(name = "cache_ttl")
+    val cacheTtl: Long? = null,
+
+    /**
+     * Seconds a hidden cached page is kept, client default when absent
+     */
+    @Json(name = "cache_idle_timeout")
+    val cacheIdleTimeout: Long? = null
 )
 
 @JsonClass(generateAdapter = true)
@@ -0,0 +1,94 @@
+package io.miniapp.core.openplatform.common.data
+
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Groups individual lookups issued within [windowMs] (or up to [maxBatchSize] keys)
+ * into one [batchFetch] call and fans the results back out to the waiting callers.
+ *
+ * Keys missing from the batch response, or every key when the batch call fails, are
+ * retried through [singleFetch] so callers still get the per-item error of the single
+ * endpoint. A lone key skips the batch endpoint entirely.
+ */
+internal class BatchLoader<K, V>(
+    private val name: String,
+    var windowMs: Long,
+    private val maxBatchSize: Int,
+    private val batchFetch: suspend (List<K>) -> Map<K, V>,
+    private val singleFetch: suspend (K) -> V
+) {
+
+    private val lock = Any()
+    private val scope = MiniAppExecutors.newScope(MiniAppExecutors.io)
+    private var pending = LinkedHashMap<K, CompletableDeferred<V>>()
+    private var flushJob: Job? = null
+
+    suspend fun load(key: K): V {
+        if (windowMs <= 0) {
+            return singleFetch(key)
+        }
+
+        val deferred = synchronized(lock) {
+            pending[key] ?: CompletableDeferred<V>().also { deferred ->
+                pending[key] = deferred
+                if (pending.size >= maxBatchSize) {
+                    flushLocked()
+                } else if (flushJob == null) {
+                    flushJob = scope.launch {
+                        delay(windowMs)
+                        synchronized(lock) { flushLocked() }
+                    }
+                }
+            }
+        }
+        return deferred.await()
+    }
+
+    private fun flushLocked() {
+        flushJob?.cancel()
+        flushJob = null
+        if (pending.isEmpty()) {
+            return
+        }
+        val batch = pending
+        pending = LinkedHashMap()
+        scope.launch { dispatch(batch) }
+    }
+
+    private suspend fun dispatch(batch: Map<K, CompletableDeferred<V>>) {
+        if (batch.size == 1) {
+            batch.forEach { (key, deferred) -> fetchSingle(key, deferred) }
+            return
+        }
+
+        val results = try {
+            batchFetch(batch.keys.toList())
+        } catch (e: Throwable) {
+            LogTimber.tag(name).w(e, "batch of ${batch.size} failed, falling back to single requests")
+            emptyMap()
+        }
+
+        batch.forEach { (key, deferred) ->
+            val value = results[key]
+            if (value != null) {
+                deferred.complete(value)
+            } else {
+                scope.launch { fetchSingle(key, deferred) }
+            }
+        }
+        LogTimber.tag(name).d("batched ${batch.size} keys, ${batch.size - results.size} fell back")
+    }
+
+    private suspend fun fetchSingle(key: K, deferred: CompletableDeferred<V>) {
+        try {
+            deferred.complete(singleFetch(key))
+        } catch (e: Throwable) {
+            deferred.completeExceptionally(e)
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.miniapp.core.openplatform.common.data
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * Cached response payload together with the validators needed to revalidate it.
+ *
+ * Entries written before validators were stored have no envelope, they decode with
+ * [storedAt] 0 and no validators, so they are simply refetched once.
+ */
+internal class CacheEntry(
+    val payload: ByteArray,
+    val etag: String?,
+    val lastModified: String?,
+    val storedAt: Long
+) {
+    val hasValidator: Boolean
+        get() = etag != null || lastModified != null
+
+    fun encode(): ByteArray {
+        val bytes = ByteArrayOutputStream(payload.size + 64)
+        DataOutputStream(bytes).use { out ->
+            out.writeByte(MAGIC)
+            out.writeByte(VERSION)
+            out.writeLong(storedAt)
+            writeString(out, etag)
+            writeString(out, lastModified)
+            out.write(payload)
+        }
+        return bytes.toByteArray()
+    }
+
+    companion object {
+        // Distinct from the first byte of DtoBinaryCodec output and of JSON
+        private const val MAGIC = 0xCE
+        private const val VERSION = 1
+
+        fun decode(bytes: ByteArray): CacheEntry {
+            if (bytes.size < 2 || (bytes[0].toInt() and 0xFF) != MAGIC || bytes[1].toInt() != VERSION) {
+                return CacheEntry(bytes, null, null, 0)
+            }
+            return try {
+                val input = ByteArrayInputStream(bytes, 2, bytes.size - 2)
+                DataInputStream(input).use { data ->
+                    val storedAt = data.readLong()
+                    val etag = readString(data)
+                    val lastModified = readString(data)
+                    CacheEntry(data.readBytes(), etag, lastModified, storedAt)
+                }
+            } catch (e: IOException) {
+                CacheEntry(ByteArray(0), null, null, 0)
+            }
+        }
+
+        private fun writeString(out: DataOutputStream, value: String?) {
+            out.writeBoolean(value != null)
+            value?.also { out.writeUTF(it) }
+        }
+
+        private fun readString(input: DataInputStream): String? {
+            return if (input.readBoolean()) input.readUTF() else null
+        }
+    }
+}
+
+/**
+ * Result of a conditional request, [body] is null when the server answered 304.
+ */
+internal class ConditionalResponse<T>(
+    val body: T?,
+    val etag: String?,
+    val lastModified: String?
+) {
+    val isNotModified: Boolean
+        get() = body == null
+}
@@ -0,0 +1,230 @@
+package io.miniapp.core.openplatform.common.data
+
+import io.miniapp.core.openplatform.common.apis.data.AppSettings
+import io.miniapp.core.openplatform.common.apis.data.DAppDto
+import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
+import io.miniapp.core.openplatform.common.network.MoshiProvider
+import java.io.ByteArrayOutputStream
+
+/**
+ * Compact binary form of the cached DTOs.
+ *
+ * Layout: magic byte, schema version, then the fields in declaration order. Nullable
+ * strings are a varint of (utf8 length + 1) with 0 for null, nullable longs and booleans
+ * carry a leading presence byte. Any layout change must bump [SCHEMA_VERSION]; entries
+ * of another version decode to null and are refetched.
+ */
+internal object DtoBinaryCodec {
+
+    // Never a valid first byte of a JSON document, so legacy JSON entries can be told apart
+    private const val MAGIC = 0xB7
+    private const val SCHEMA_VERSION = 2
+
+    fun encode(dto: MiniAppDto): ByteArray {
+        return Writer().apply {
+            header()
+            string(dto.id)
+            string(dto.identifier)
+            string(dto.title)
+            string(dto.description)
+            string(dto.shortDescription)
+            string(dto.iconUrl)
+            string(dto.bannerUrl)
+            string(dto.botId)
+            string(dto.botName)
+            long(dto.createAt)
+            long(dto.updateAt)
+            dto.options?.also {
+                byte(1)
+                string(it.viewStyle)
+                string(it.navigationStyle)
+                bool(it.allowHorizontalSwipe)
+                bool(it.allowVerticalSwipe)
+                bool(it.disableCache)
+                long(it.cacheTtl)
+                long(it.cacheIdleTimeout)
+            } ?: byte(0)
+            bool(dto.isShareEnabled)
+        }.toByteArray()
+    }
+
+    fun encode(dto: DAppDto): ByteArray {
+        return Writer().apply {
+            header()
+            string(dto.id)
+            string(dto.title)
+            string(dto.url)
+            string(dto.description)
+            string(dto.shortDescription)
+            string(dto.iconUrl)
+            string(dto.bannerUrl)
+            long(dto.createAt)
+            long(dto.updateAt)
+            bool(dto.isShareEnabled)
+        }.toByteArray()
+    }
+
+    fun decodeMiniApp(bytes: ByteArray): MiniAppDto? {
+        if (!isBinary(bytes)) {
+            return MoshiProvider.fromJson<MiniAppDto>(String(bytes, Charsets.UTF_8))
+        }
+        return try {
+            Reader(bytes).run {
+                if (!header()) return null
+                MiniAppDto(
+                    id = string() ?: return null,
+                    identifier = string(),
+                    title = string(),
+                    description = string(),
+                    shortDescription = string(),
+                    iconUrl = string(),
+                    bannerUrl = string(),
+                    botId = string(),
+                    botName = string(),
+                    createAt = long(),
+                    updateAt = long(),
+                    options = if (byte() == 0) null else AppSettings(
+                        viewStyle = string(),
+                        navigationStyle = string(),
+                        allowHorizontalSwipe = bool(),
+                        allowVerticalSwipe = bool(),
+                        disableCache = bool(),
+                        cacheTtl = long(),
+                        cacheIdleTimeout = long()
+                    ),
+                    isShareEnabled = bool()
+                )
+            }
+        } catch (e: IndexOutOfBoundsException) {
+            null
+        }
+    }
+
+    fun decodeDApp(bytes: ByteArray): DAppDto? {
+        if (!isBinary(bytes)) {
+            return MoshiProvider.fromJson<DAppDto>(String(bytes, Charsets.UTF_8))
+        }
+        return try {
+            Reader(bytes).run {
+                if (!header()) return null
+                DAppDto(
+                    id = string() ?: return null,
+                    title = string(),
+                    url = string(),
+                    description = string(),
+                    shortDescription = string(),
+                    iconUrl = string(),
+                    bannerUrl = string(),
+                    createAt = long(),
+                    updateAt = long(),
+                    isShareEnabled = bool()
+                )
+            }
+        } catch (e: IndexOutOfBoundsException) {
+            null
+        }
+    }
+
+    private fun isBinary(bytes: ByteArray) = bytes.isNotEmpty() && (bytes[0].toInt() and 0xFF) == MAGIC
+
+    private class Writer : ByteArrayOutputStream(256) {
+
+        fun header() {
+            write(MAGIC)
+            write(SCHEMA_VERSION)
+        }
+
+        fun byte(value: Int) = write(value)
+
+        fun varint(value: Long) {
+            var v = value
+            while (v and 0x7FL.inv() != 0L) {
+                write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            write(v.toInt())
+        }
+
+        fun string(value: String?) {
+            if (value == null) {
+                varint(0)
+                return
+            }
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            varint(bytes.size + 1L)
+            write(bytes, 0, bytes.size)
+        }
+
+        fun long(value: Long?) {
+            if (value == null) {
+                write(0)
+                return
+            }
+            write(1)
+            // Zig-zag so negative values stay short
+            varint((value shl 1) xor (value shr 63))
+        }
+
+        fun bool(value: Boolean?) {
+            write(
+                when (value) {
+                    null -> 0
+                    false -> 1
+                    true -> 2
+                }
+            )
+        }
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun header(): Boolean {
+            return byte() == MAGIC && byte() == SCHEMA_VERSION
+        }
+
+        fun byte(): Int = bytes[position++].toInt() and 0xFF
+
+        fun varint(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val b = byte()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+        }
+
+        fun string(): String? {
+            val length = varint().toInt() - 1
+            if (length < 0) {
+                return null
+            }
+            if (position + length > bytes.size) {
+                throw IndexOutOfBoundsException()
+            }
+            return String(bytes, position, length, Charsets.UTF_8).also {
+                position += length
+            }
+        }
+
+        fun long(): Long? {
+            if (byte() == 0) {
+                return null
+            }
+            val v = varint()
+            return (v ushr 1) xor -(v and 1)
+        }
+
+        fun bool(): Boolean? {
+            return when (byte()) {
+                0 -> null
+                1 -> false
+                else -> true
+            }
+        }
+    }
+}
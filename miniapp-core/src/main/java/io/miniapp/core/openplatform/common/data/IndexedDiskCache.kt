@@ -0,0 +1,309 @@
+package io.miniapp.core.openplatform.common.data
+
+import android.content.Context
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Key/value cache backed by an append-only journal and an in-memory LRU index.
+ *
+ * Every write appends one record, so a save costs O(1) regardless of how many entries
+ * are stored. Reads queue a touch record that goes to disk with the next write, so the LRU
+ * order mostly survives process restarts without a disk write per read. The journal is
+ * loaded on the cache lane, calls made before it is read wait for it, and it is rewritten
+ * from the index only once dead records dominate it.
+ */
+internal object IndexedDiskCache {
+    private const val LEGACY_PREFS = "__open_platform_local_"
+    private const val DIR_NAME = "open_platform_cache"
+    private const val JOURNAL_FILE = "journal"
+    private const val MAX_SIZE = 100 // Maximum storage count
+    private const val COMPACT_THRESHOLD = 200
+    private const val MAX_RECORD_BYTES = 8 * 1024 * 1024
+
+    private const val OP_PUT: Byte = 1
+    private const val OP_REMOVE: Byte = 2
+    private const val OP_TOUCH: Byte = 3
+
+    private class Record(val value: ByteArray, val expireAt: Long) {
+        val isExpired: Boolean
+            get() = expireAt > 0 && System.currentTimeMillis() > expireAt
+    }
+
+    private val lock = Any()
+    private val index = LinkedHashMap<String, Record>(MAX_SIZE, 0.75f, true)
+
+    private var journalFile: File? = null
+    private var journal: DataOutputStream? = null
+    private var redundantCount = 0
+
+    // Last key written to the journal, touching it again would change nothing
+    private var lastJournaledKey: String? = null
+
+    @Volatile
+    private var loaded: CountDownLatch? = null
+
+    private val scope = MiniAppExecutors.newScope(MiniAppExecutors.cache)
+
+    // Initialization method, returns right away and loads the journal in the background
+    fun init(context: Context) {
+        val latch = synchronized(lock) {
+            if (loaded != null) {
+                return
+            }
+            CountDownLatch(1).also { loaded = it }
+        }
+        val appContext = context.applicationContext ?: context
+        scope.launch {
+            try {
+                synchronized(lock) {
+                    load(appContext)
+                }
+            } finally {
+                latch.countDown()
+            }
+        }
+    }
+
+    fun getValue(key: String): String? {
+        return getBytes(key)?.let { String(it, Charsets.UTF_8) }
+    }
+
+    fun getBytes(key: String): ByteArray? {
+        awaitLoaded()
+        synchronized(lock) {
+            val record = index[key] ?: return null
+            if (record.isExpired) {
+                removeLocked(key)
+                return null
+            }
+            if (key != lastJournaledKey) {
+                appendRecord(OP_TOUCH, key, flush = false)
+            }
+            return record.value
+        }
+    }
+
+    fun saveValue(key: String, value: String?, ttlMs: Long = 0) {
+        saveBytes(key, value?.toByteArray(Charsets.UTF_8), ttlMs)
+    }
+
+    /**
+     * @param ttlMs entry lifetime in milliseconds, 0 keeps the entry until it is evicted.
+     */
+    fun saveBytes(key: String, value: ByteArray?, ttlMs: Long = 0) {
+        awaitLoaded()
+        synchronized(lock) {
+            if (value == null) {
+                removeLocked(key)
+                return
+            }
+            val expireAt = if (ttlMs > 0) System.currentTimeMillis() + ttlMs else 0
+            if (index.put(key, Record(value, expireAt)) != null) {
+                redundantCount++
+            }
+            appendRecord(OP_PUT, key, value, expireAt)
+
+            // Remove the oldest keys once the cache is full
+            while (index.size > MAX_SIZE) {
+                removeLocked(index.keys.first())
+            }
+            compactIfNeeded()
+        }
+    }
+
+    fun removeValue(key: String) {
+        awaitLoaded()
+        synchronized(lock) {
+            removeLocked(key)
+        }
+    }
+
+    private fun removeLocked(key: String) {
+        if (index.remove(key) != null) {
+            redundantCount++
+            appendRecord(OP_REMOVE, key)
+        }
+    }
+
+    private fun awaitLoaded() {
+        loaded?.await()
+    }
+
+    private fun load(context: Context) {
+        val dir = File(context.filesDir, DIR_NAME).apply { mkdirs() }
+        val file = File(dir, JOURNAL_FILE)
+        journalFile = file
+
+        if (file.exists()) {
+            readJournal(file)
+        } else {
+            openJournal(file, append = false)
+            migrateFromSharedPreferences(context)
+        }
+    }
+
+    /**
+     * @param flush false to leave the record buffered until the next flushed one, for records
+     * whose loss only costs a little LRU accuracy.
+     */
+    private fun appendRecord(op: Byte, key: String, value: ByteArray? = null, expireAt: Long = 0, flush: Boolean = true) {
+        val out = journal ?: return
+        try {
+            out.writeByte(op.toInt())
+            writeString(out, key)
+            if (op == OP_PUT) {
+                out.writeLong(expireAt)
+                writeBytes(out, value!!)
+            } else {
+                redundantCount++
+            }
+            lastJournaledKey = key
+            if (flush) {
+                out.flush()
+            }
+        } catch (e: Exception) {
+            LogTimber.tag("IndexedDiskCache").e(e, "append failed")
+        }
+    }
+
+    private fun readJournal(file: File) {
+        var torn = false
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                while (true) {
+                    val op = try {
+                        input.readByte()
+                    } catch (e: EOFException) {
+                        break
+                    }
+                    val key = readString(input)
+                    when (op) {
+                        OP_PUT -> {
+                            val expireAt = input.readLong()
+                            if (index.put(key, Record(readBytes(input), expireAt)) != null) {
+                                redundantCount++
+                            }
+                        }
+                        OP_REMOVE -> {
+                            redundantCount += if (index.remove(key) != null) 2 else 1
+                        }
+                        OP_TOUCH -> {
+                            index[key]
+                            redundantCount++
+                        }
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            // A torn tail record from a crash mid-write, everything before it is still valid
+            LogTimber.tag("IndexedDiskCache").w(e, "journal truncated")
+            torn = true
+        }
+
+        if (torn) {
+            // Rewrite so a torn tail never sits in front of new records
+            index.entries.removeAll { it.value.isExpired }
+            while (index.size > MAX_SIZE) {
+                index.remove(index.keys.first())
+            }
+            rebuildJournal(file)
+            return
+        }
+
+        openJournal(file, append = true)
+        // Record what the replay dropped so a later replay drops the same keys
+        index.entries.filter { it.value.isExpired }.forEach { removeLocked(it.key) }
+        while (index.size > MAX_SIZE) {
+            removeLocked(index.keys.first())
+        }
+        compactIfNeeded()
+    }
+
+    private fun openJournal(file: File, append: Boolean) {
+        journal?.close()
+        journal = DataOutputStream(BufferedOutputStream(FileOutputStream(file, append)))
+    }
+
+    private fun compactIfNeeded() {
+        if (redundantCount >= COMPACT_THRESHOLD && redundantCount >= index.size) {
+            journalFile?.also { rebuildJournal(it) }
+        }
+    }
+
+    private fun rebuildJournal(file: File) {
+        val tmp = File(file.parentFile, "$JOURNAL_FILE.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                // Iteration order is least recently used first, replaying restores the LRU order
+                index.forEach { (key, record) ->
+                    out.writeByte(OP_PUT.toInt())
+                    writeString(out, key)
+                    out.writeLong(record.expireAt)
+                    writeBytes(out, record.value)
+                }
+            }
+            journal?.close()
+            journal = null
+            lastJournaledKey = null
+            if (tmp.renameTo(file)) {
+                redundantCount = 0
+            }
+        } catch (e: Exception) {
+            LogTimber.tag("IndexedDiskCache").e(e, "compact failed")
+        }
+        openJournal(file, append = true)
+    }
+
+    private fun migrateFromSharedPreferences(context: Context) {
+        val prefs = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE)
+        val legacy = prefs.all
+        if (legacy.isEmpty()) {
+            return
+        }
+        legacy.forEach { (key, value) ->
+            (value as? String)?.toByteArray(Charsets.UTF_8)?.also {
+                index[key] = Record(it, 0)
+                appendRecord(OP_PUT, key, it, 0)
+            }
+        }
+        while (index.size > MAX_SIZE) {
+            removeLocked(index.keys.first())
+        }
+        prefs.edit().clear().apply()
+    }
+
+    private fun writeString(out: DataOutputStream, value: String) {
+        writeBytes(out, value.toByteArray(Charsets.UTF_8))
+    }
+
+    private fun writeBytes(out: DataOutputStream, bytes: ByteArray) {
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        return String(readBytes(input), Charsets.UTF_8)
+    }
+
+    private fun readBytes(input: DataInputStream): ByteArray {
+        val size = input.readInt()
+        if (size < 0 || size > MAX_RECORD_BYTES) {
+            throw IOException("invalid record size $size")
+        }
+        val bytes = ByteArray(size)
+        input.readFully(bytes)
+        return bytes
+    }
+}
@@ -1,73 +1,130 @@
 package io.miniapp.core.openplatform.common.data
 
+import io.miniapp.core.openplatform.AuthManager
 import io.miniapp.core.openplatform.common.apis.OpenServiceApi
 import io.miniapp.core.openplatform.common.apis.data.AuthParams
 import io.miniapp.core.openplatform.common.apis.data.CustomMethodsParams
 import io.miniapp.core.openplatform.common.apis.data.InlineButtonCallbackParams
 import io.miniapp.core.openplatform.common.apis.data.LaunchParams
 import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
+import io.miniapp.core.openplatform.common.network.RetryExecutor
 import kotlinx.coroutines.flow.flow
+import retrofit2.HttpException
+import retrofit2.Response
 
 internal class OpenServiceRemoteDataSource() : IOpenServiceDataSource {
 
     private val minAppApi = OkHttpClientProvider.retrofitFactory().create(OpenServiceApi::class.java)
+    private val retryExecutor = RetryExecutor()
+
+    // GETs and the launch request can be repeated safely, other POSTs are only retried if they never reached the server
+    private suspend fun <T> retrying(idempotent: Boolean, authenticated: Boolean = true, block: suspend () -> T): T {
+        val host = OkHttpClientProvider.apiHost ?: ""
+        if (!authenticated) {
+            return retryExecutor.execute(host, idempotent, block)
+        }
+
+        val token = AuthManager.awaitToken()
+        return try {
+            retryExecutor.execute(host, idempotent, block)
+        } catch (e: HttpException) {
+            if (e.code() != 401) {
+                throw e
+            }
+            // One refresh is shared by every request rejected with the same token
+            AuthManager.refreshAfterUnauthorized(token) ?: throw e
+            retryExecutor.execute(host, idempotent, block)
+        }
+    }
+
     override suspend fun auth(verifier: String, idToken: String) = flow {
-        val data = minAppApi.verifier(AuthParams(verifier = verifier, options = mapOf("id_token" to idToken)))
+        val data = retrying(idempotent = false, authenticated = false) { minAppApi.verifier(AuthParams(verifier = verifier, options = mapOf("id_token" to idToken))) }
         emit(data)
     }
 
     override suspend fun getBotInfo(botIdOrName: String) = flow {
-        val data = minAppApi.getBotInfo(botIdOrName)
+        val data = retrying(idempotent = true) { minAppApi.getBotInfo(botIdOrName) }
         emit(data)
     }
 
     override suspend fun inlineCallback(params: InlineButtonCallbackParams) = flow {
-        val data = minAppApi.inlineButtonCallback(params)
+        val data = retrying(idempotent = false) { minAppApi.inlineButtonCallback(params) }
         emit(data)
     }
 
     override suspend fun requestLaunchInfo(params: LaunchParams) = flow {
-        val data = minAppApi.launch(params)
+        val data = retrying(idempotent = true) { minAppApi.launch(params) }
         emit(data)
     }
 
     override suspend fun requestMiniApp(appId: String) = flow {
-        val data = minAppApi.getMiniAppInfo(appId)
+        val data = retrying(idempotent = true) { minAppApi.getMiniAppInfo(appId) }
         emit(data)
     }
 
+    fun requestMiniAppIfChanged(appId: String, etag: String?, lastModified: String?) = flow {
+        val response = retrying(idempotent = true) { minAppApi.getMiniAppInfoIfChanged(appId, etag, lastModified).toConditional() }
+        emit(response)
+    }
+
     override suspend fun requestMiniApp(appName: String, botIdOrName: String) = flow {
-        val data = minAppApi.getMiniAppInfo(botIdOrName, appName)
+        val data = retrying(idempotent = true) { minAppApi.getMiniAppInfo(botIdOrName, appName) }
         emit(data)
     }
 
+    fun requestMiniAppWithValidators(appName: String, botIdOrName: String) = flow {
+        val response = retrying(idempotent = true) { minAppApi.getMiniAppInfoWithHeaders(botIdOrName, appName).toConditional() }
+        emit(response)
+    }
+
     override suspend fun batchRequestMiniApp(appIds: List<String>) = flow {
-        val data = minAppApi.batchGetMiniApp(appIds)
+        val data = retrying(idempotent = true) { minAppApi.batchGetMiniApp(appIds) }
         emit(data)
     }
 
+    fun batchRequestMiniAppWithValidators(appIds: List<String>) = flow {
+        val response = retrying(idempotent = true) { minAppApi.batchGetMiniAppWithHeaders(appIds).toConditional() }
+        emit(response)
+    }
+
     override suspend fun requestDApp(dAppId: String) = flow {
-        val data = minAppApi.getDAppInfo(dAppId)
+        val data = retrying(idempotent = true) { minAppApi.getDAppInfo(dAppId) }
         emit(data)
     }
 
+    fun requestDAppIfChanged(dAppId: String, etag: String?, lastModified: String?) = flow {
+        val response = retrying(idempotent = true) { minAppApi.getDAppInfoIfChanged(dAppId, etag, lastModified).toConditional() }
+        emit(response)
+    }
+
     override suspend fun invokeCustomMethod(params: CustomMethodsParams) = flow {
-        val data = minAppApi.invokeCustomMethod(params)
+        val data = retrying(idempotent = false) { minAppApi.invokeCustomMethod(params) }
         emit(data.result)
     }
 
     override suspend fun requestDAppLaunchUrl(url: String, id: String?) = flow {
-        val data = minAppApi.getDAppLaunchInfo(url, id)
+        val data = retrying(idempotent = true) { minAppApi.getDAppLaunchInfo(url, id) }
         emit(data)
     }
 
     override suspend fun generateShareLink(params: Map<String, String?>) = flow {
-        val data = minAppApi.generateShareLink(params)
+        val data = retrying(idempotent = false) { minAppApi.generateShareLink(params) }
         emit(data)
     }
 
     override suspend fun getAppInfoByShareCode(code: String) = flow {
-        val data = minAppApi.getAppInfoByInviteCode(code)
+        val data = retrying(idempotent = true) { minAppApi.getAppInfoByInviteCode(code) }
         emit(data)
     }
+
+    private fun <T> Response<T>.toConditional(): ConditionalResponse<T> {
+        if (code() != 304 && !isSuccessful) {
+            throw HttpException(this)
+        }
+        return ConditionalResponse(
+            body = if (code() == 304) null else checkNotNull(body()) { "Response body was null" },
+            etag = headers()["ETag"],
+            lastModified = headers()["Last-Modified"]
+        )
+    }
 }
\ No newline at end of file
@@ -1,33 +1,100 @@
 package io.miniapp.core.openplatform.common.data
 
+import androidx.annotation.VisibleForTesting
 import io.miniapp.core.openplatform.common.apis.data.CustomMethodsParams
 import io.miniapp.core.openplatform.common.apis.data.DAppDto
 import io.miniapp.core.openplatform.common.apis.data.InlineButtonCallbackParams
 import io.miniapp.core.openplatform.common.apis.data.LaunchParams
 import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
-import io.miniapp.core.openplatform.common.network.MoshiProvider
-import kotlinx.coroutines.Dispatchers
+import io.miniapp.core.openplatform.common.apis.data.MiniAppResponse
+import io.miniapp.core.openplatform.miniapp.CachePolicy
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.flow
-import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
 
 internal class OpenServiceRepository private constructor(): IOpenServiceDataSource {
 
     companion object {
+        private const val DEFAULT_BATCH_WINDOW_MS = 20L
+        private const val MAX_BATCH_SIZE = 20
+
         private val _instance = OpenServiceRepository()
         fun getInstance(): IOpenServiceDataSource = _instance
+
+        // Window in which single mini app lookups are merged into one batch-get, 0 disables batching
+        fun setBatchWindow(windowMs: Long) {
+            _instance.miniAppLoader.windowMs = windowMs
+        }
+
+        // Per endpoint cache policies, see CachePolicy.ENDPOINT_*
+        fun setCachePolicies(policies: Map<String, CachePolicy>) {
+            _instance.cachePolicies = policies
+        }
+
+        /**
+         * Loader merging single mini app lookups on [remote] into batch-get calls. Values carry
+         * the validators to store along with the app.
+         */
+        @VisibleForTesting
+        fun newMiniAppLoader(
+            remote: () -> OpenServiceRemoteDataSource,
+            windowMs: Long = DEFAULT_BATCH_WINDOW_MS,
+            maxBatchSize: Int = MAX_BATCH_SIZE
+        ) = BatchLoader<String, ConditionalResponse<MiniAppDto>>(
+            name = "MiniAppBatchLoader",
+            windowMs = windowMs,
+            maxBatchSize = maxBatchSize,
+            batchFetch = { appIds ->
+                remote().batchRequestMiniAppWithValidators(appIds).first().itemValidators()
+                    .associateBy { it.body!!.id }
+            },
+            singleFetch = { appId -> remote().requestMiniAppIfChanged(appId, null, null).first() }
+        )
+
+        /**
+         * The batch ETag describes the whole list, so items only keep its Last-Modified, which no
+         * item was changed after.
+         */
+        private fun ConditionalResponse<MiniAppResponse>.itemValidators(): List<ConditionalResponse<MiniAppDto>> {
+            return body?.items.orEmpty().map { ConditionalResponse(it, null, lastModified) }
+        }
     }
 
     private val remoteDataSource by lazy {
         OpenServiceRemoteDataSource()
     }
 
+    @Volatile
+    private var cachePolicies: Map<String, CachePolicy> = emptyMap()
+
+    // Last time a cache entry was confirmed by a 304, kept in memory so a 304 costs no disk write
+    private val revalidatedAt = ConcurrentHashMap<String, Long>()
+
+    // Shares identical in-flight GETs, e.g. a preload and a tap on the same app
+    val singleFlight = SingleFlight("OpenServiceRepository")
+
+    private val miniAppLoader = newMiniAppLoader({ remoteDataSource })
+
+    // Without validators these always answer with a body, along with the validators to store
+    private fun fetchMiniApp(appId: String) =
+        singleFlight.flow("GET miniapps/$appId") { flowOf(miniAppLoader.load(appId)) }
+
+    private fun fetchMiniApp(appName: String, botIdOrName: String) =
+        singleFlight.flow("GET bots/$botIdOrName/miniapps/$appName") { remoteDataSource.requestMiniAppWithValidators(appName, botIdOrName) }
+
+    private fun fetchDApp(dAppId: String) =
+        singleFlight.flow("GET dapps/$dAppId") { remoteDataSource.requestDAppIfChanged(dAppId, null, null) }
+
     override suspend fun auth(verifier: String, idToken: String) =
         remoteDataSource.auth(verifier, idToken)
 
     override suspend fun getBotInfo(botIdOrName: String) =
-        remoteDataSource.getBotInfo(botIdOrName)
+        singleFlight.flow("GET bots/$botIdOrName") { remoteDataSource.getBotInfo(botIdOrName) }
 
     override suspend fun inlineCallback(params: InlineButtonCallbackParams) =
         remoteDataSource.inlineCallback(params)
@@ -36,33 +103,19 @@ internal class OpenServiceRepository private constructor(): IOpenServiceDataSour
         remoteDataSource.requestLaunchInfo(params)
 
     override suspend fun requestMiniApp(appId: String): Flow<MiniAppDto> {
-        val cacheKey = "miniapp_${appId}"
-
-        return LRUSharedPreferencesCache.getValue(cacheKey)?.let {
-            flow {
-                var emitResult = false
-                try {
-                    val data = MoshiProvider.fromJson<MiniAppDto>(it)!!
-                    emit(data)
-                    emitResult = true
-                } catch (e: Throwable) {
-                    e.printStackTrace()
+        return cachedFlow(
+            endpoint = CachePolicy.ENDPOINT_MINI_APP,
+            cacheKey = "miniapp_${appId}",
+            decode = { DtoBinaryCodec.decodeMiniApp(it) },
+            encode = { DtoBinaryCodec.encode(it) },
+            fetch = { fetchMiniApp(appId).first() },
+            revalidate = { entry ->
+                singleFlight.execute("GET miniapps/$appId ${entry.etag} ${entry.lastModified}") {
+                    remoteDataSource.requestMiniAppIfChanged(appId, entry.etag, entry.lastModified).first()
                 }
-                withContext(Dispatchers.IO) {
-                    remoteDataSource.requestMiniApp(appId).collect { app ->
-                        LRUSharedPreferencesCache.saveValue(app.spKey(), appId)
-                        LRUSharedPreferencesCache.saveValue(cacheKey, MoshiProvider.toJson(app))
-                        if (!emitResult) {
-                            emit(app)
-                        }
-                    }
-                }
-            }
-        } ?: remoteDataSource.requestMiniApp(appId).onEach {
-            // Save request response data to cache
-            LRUSharedPreferencesCache.saveValue(it.spKey(), appId)
-            LRUSharedPreferencesCache.saveValue(cacheKey, MoshiProvider.toJson(it))
-        }
+            },
+            onFetched = { IndexedDiskCache.saveValue(it.spKey(), appId) }
+        )
     }
 
     private fun MiniAppDto.spKey() : String {
@@ -70,55 +123,110 @@ internal class OpenServiceRepository private constructor(): IOpenServiceDataSour
     }
 
     override suspend fun requestMiniApp(appName: String, botIdOrName: String): Flow<MiniAppDto> {
-        return LRUSharedPreferencesCache.getValue("${botIdOrName}_${appName}")?.let {
+        return IndexedDiskCache.getValue("${botIdOrName}_${appName}")?.let {
             requestMiniApp(it)
-        } ?: remoteDataSource.requestMiniApp(appName, botIdOrName).onEach {
-            LRUSharedPreferencesCache.saveValue(it.spKey(), it.id ?: "0")
-            LRUSharedPreferencesCache.saveValue(
-                "miniapp_${it.id}",
-                MoshiProvider.toJson(it)
-            )
+        } ?: fetchMiniApp(appName, botIdOrName).map { response ->
+            response.body!!.also {
+                IndexedDiskCache.saveValue(it.spKey(), it.id)
+                saveEntry("miniapp_${it.id}", DtoBinaryCodec.encode(it), response.etag, response.lastModified)
+            }
         }
     }
 
     override suspend fun batchRequestMiniApp(appIds: List<String>) =
-        remoteDataSource.batchRequestMiniApp(appIds).onEach {
-            it.items?.forEach { app->
-                LRUSharedPreferencesCache.saveValue(app.spKey(), app.id ?: "0")
-                LRUSharedPreferencesCache.saveValue("miniapp_${app.id}", MoshiProvider.toJson(app))
+        remoteDataSource.batchRequestMiniAppWithValidators(appIds).map { response ->
+            response.itemValidators().forEach { item ->
+                val app = item.body!!
+                IndexedDiskCache.saveValue(app.spKey(), app.id)
+                saveEntry("miniapp_${app.id}", DtoBinaryCodec.encode(app), item.etag, item.lastModified)
             }
+            response.body!!
         }
 
     override suspend fun requestDApp(dAppId: String): Flow<DAppDto> {
-        val cacheKey = "dapp_${dAppId}"
-
-        return LRUSharedPreferencesCache.getValue(cacheKey)?.let { cachedData ->
-            flow {
-                var emitResult = false
-                try {
-                    val data = MoshiProvider.fromJson<DAppDto>(cachedData)!!
-                    emit(data)
-                    emitResult = true
-                } catch (e: Throwable) {
-                    e.printStackTrace()
+        return cachedFlow(
+            endpoint = CachePolicy.ENDPOINT_DAPP,
+            cacheKey = "dapp_${dAppId}",
+            decode = { DtoBinaryCodec.decodeDApp(it) },
+            encode = { DtoBinaryCodec.encode(it) },
+            fetch = { fetchDApp(dAppId).first() },
+            revalidate = { entry ->
+                singleFlight.execute("GET dapps/$dAppId ${entry.etag} ${entry.lastModified}") {
+                    remoteDataSource.requestDAppIfChanged(dAppId, entry.etag, entry.lastModified).first()
+                }
+            }
+        )
+    }
+
+    /**
+     * Serve [cacheKey] according to the policy of [endpoint]: fresh entries are emitted as is,
+     * stale ones are emitted and revalidated, expired ones are revalidated before emitting.
+     * Revalidation sends the stored validators, a 304 only refreshes the entry's age in memory.
+     * A stale entry is revalidated in the [singleFlight] scope, so collectors that stop after
+     * the first value, e.g. with first(), do not cancel it; both paths share one call per key.
+     */
+    private fun <T : Any> cachedFlow(
+        endpoint: String,
+        cacheKey: String,
+        decode: (ByteArray) -> T?,
+        encode: (T) -> ByteArray,
+        fetch: suspend () -> ConditionalResponse<T>,
+        revalidate: suspend (CacheEntry) -> ConditionalResponse<T>,
+        onFetched: (T) -> Unit = {}
+    ): Flow<T> = flow {
+        val entry = IndexedDiskCache.getBytes(cacheKey)?.let { CacheEntry.decode(it) }
+        val cached = entry?.let {
+            try {
+                decode(it.payload)
+            } catch (e: Throwable) {
+                e.printStackTrace()
+                null
+            }
+        }
+
+        if (entry == null || cached == null) {
+            val data = withContext(MiniAppExecutors.io) {
+                val response = fetch()
+                response.body!!.also {
+                    saveEntry(cacheKey, encode(it), response.etag, response.lastModified)
+                    onFetched(it)
                 }
+            }
+            emit(data)
+            return@flow
+        }
 
-                remoteDataSource.requestDApp(dAppId).collect { dApp ->
-                    LRUSharedPreferencesCache.saveValue(
-                        cacheKey,
-                        MoshiProvider.toJson(dApp)
-                    )
-                    if (!emitResult) {
-                        emit(dApp)
-                    }
+        val revalidateKey = "REVALIDATE $cacheKey"
+        // Runs in the singleFlight scope, on the io dispatcher
+        val refresh: suspend () -> T? = {
+            val response = revalidate(entry)
+            if (response.isNotModified) {
+                revalidatedAt[cacheKey] = System.currentTimeMillis()
+                null
+            } else {
+                response.body!!.also {
+                    saveEntry(cacheKey, encode(it), response.etag, response.lastModified)
+                    onFetched(it)
                 }
             }
-        } ?: remoteDataSource.requestDApp(dAppId).onEach { dApp ->
-            LRUSharedPreferencesCache.saveValue(
-                cacheKey,
-                MoshiProvider.toJson(dApp)
-            )
         }
+
+        val policy = cachePolicies[endpoint] ?: CachePolicy.DEFAULT
+        val age = System.currentTimeMillis() - maxOf(entry.storedAt, revalidatedAt[cacheKey] ?: 0L)
+        when {
+            age < policy.maxAgeMs -> emit(cached)
+            age - policy.maxAgeMs < policy.staleWhileRevalidateMs -> {
+                // The stale value is served, the refresh outlives this collector
+                singleFlight.launch(revalidateKey, refresh)
+                emit(cached)
+            }
+            else -> emit(singleFlight.execute(revalidateKey, refresh) ?: cached)
+        }
+    }
+
+    private fun saveEntry(cacheKey: String, payload: ByteArray, etag: String? = null, lastModified: String? = null) {
+        revalidatedAt.remove(cacheKey)
+        IndexedDiskCache.saveBytes(cacheKey, CacheEntry(payload, etag, lastModified, System.currentTimeMillis()).encode())
     }
 
     override suspend fun invokeCustomMethod(params: CustomMethodsParams) =
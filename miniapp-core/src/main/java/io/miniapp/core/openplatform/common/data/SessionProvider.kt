@@ -3,32 +3,66 @@ package io.miniapp.core.openplatform.common.data
 import android.app.Activity
 import android.content.Context
 import android.content.SharedPreferences
+import android.util.Base64
+import org.json.JSONObject
 
 internal class SessionProvider(val context: Context) {
 
     companion object {
         const val GLOBAL = "__open_platform_auth_"
+
+        // Refresh this long before the token expires so requests never carry an expired token
+        private const val REFRESH_AHEAD_MS = 60_000L
     }
 
     private val provider: SharedPreferences =
         context.getSharedPreferences(GLOBAL, Activity.MODE_PRIVATE)
 
+    @Volatile
     var token: String? = null
         set(value) {
             synchronized(this) {
                 field = value
+                expiresAt = parseExpiration(value)
                 save()
             }
         }
 
+    // JWT exp in milliseconds, 0 when the token carries none
+    @Volatile
+    private var expiresAt = 0L
+
     fun isAuth(): Boolean {
         synchronized(this) {
             return !token.isNullOrBlank()
         }
     }
 
+    /**
+     * True once the token is about to expire and should be refreshed.
+     */
     fun isTokenExpirationTime() : Boolean {
-        return false
+        val expiresAt = this.expiresAt
+        return expiresAt > 0 && System.currentTimeMillis() >= expiresAt - REFRESH_AHEAD_MS
+    }
+
+    /**
+     * True once the token can no longer be used.
+     */
+    fun isTokenExpired() : Boolean {
+        val expiresAt = this.expiresAt
+        return expiresAt > 0 && System.currentTimeMillis() >= expiresAt
+    }
+
+    private fun parseExpiration(token: String?): Long {
+        val payload = token?.split('.')?.takeIf { it.size == 3 }?.get(1) ?: return 0
+        return try {
+            val json = String(Base64.decode(payload, Base64.URL_SAFE or Base64.NO_PADDING or Base64.NO_WRAP), Charsets.UTF_8)
+            JSONObject(json).optLong("exp", 0) * 1000
+        } catch (e: Exception) {
+            // Not a JWT, rely on 401 responses only
+            0
+        }
     }
 
     init {
@@ -0,0 +1,81 @@
+package io.miniapp.core.openplatform.common.data
+
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collapses concurrent identical requests into one in-flight call.
+ *
+ * Callers asking for a key that is already being fetched await the same [Deferred]
+ * instead of issuing another request. The call runs in its own scope, so one caller
+ * going away does not cancel the result for the others.
+ */
+internal class SingleFlight(private val name: String) {
+
+    private val inFlight = ConcurrentHashMap<String, Deferred<Any?>>()
+    private val scope = MiniAppExecutors.newScope(MiniAppExecutors.io)
+
+    private val _requestCount = AtomicLong()
+    private val _coalescedCount = AtomicLong()
+
+    /** Number of calls that actually went out. */
+    val requestCount: Long
+        get() = _requestCount.get()
+
+    /** Number of calls that joined an in-flight request instead. */
+    val coalescedCount: Long
+        get() = _coalescedCount.get()
+
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T> execute(key: String, block: suspend () -> T): T {
+        var created = false
+        val deferred = inFlight.computeIfAbsent(key) {
+            created = true
+            scope.async { block() }
+        }
+
+        if (created) {
+            _requestCount.incrementAndGet()
+            deferred.invokeOnCompletion {
+                inFlight.remove(key, deferred)
+            }
+        } else {
+            _coalescedCount.incrementAndGet()
+            LogTimber.tag(name).d("coalesced $key requests=$requestCount coalesced=$coalescedCount")
+        }
+
+        return deferred.await() as T
+    }
+
+    /**
+     * Start [block] for [key] in the background without waiting for it, joining the call
+     * already in flight for [key] if there is one. Failures are only logged.
+     */
+    fun launch(key: String, block: suspend () -> Any?) {
+        scope.launch {
+            try {
+                execute(key, block)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Throwable) {
+                LogTimber.tag(name).e(e, "background $key failed")
+            }
+        }
+    }
+
+    /**
+     * Cold flow emitting the first value of [source], shared with concurrent collectors of the same [key].
+     */
+    fun <T> flow(key: String, source: suspend () -> Flow<T>): Flow<T> = flow {
+        emit(execute(key) { source().first() })
+    }
+}
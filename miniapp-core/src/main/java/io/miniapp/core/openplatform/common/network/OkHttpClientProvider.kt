@@ -1,16 +1,27 @@
 package io.miniapp.core.openplatform.common.network
 
+import android.util.Log
+import androidx.annotation.VisibleForTesting
 import io.miniapp.core.openplatform.common.network.interceptors.CurlLoggingInterceptor
 import io.miniapp.core.openplatform.common.network.interceptors.FormattedJsonHttpLogger
 import io.miniapp.core.openplatform.common.network.interceptors.HeadInterceptor
-import io.miniapp.core.openplatform.common.network.interceptors.RetryInterceptor
 import io.miniapp.core.openplatform.common.network.interceptors.SessionInterceptor
+import io.miniapp.core.openplatform.common.network.interceptors.TokenAuthenticator
 import io.miniapp.core.openplatform.common.network.ssl.CertUtil
+import io.miniapp.core.openplatform.common.network.utils.Lazy
+import io.miniapp.core.openplatform.common.network.utils.ensureProtocol
 import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.launch
+import okhttp3.Authenticator
+import okhttp3.ConnectionPool
 import okhttp3.ConnectionSpec
 import okhttp3.Dispatcher
+import okhttp3.Interceptor
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.OkHttpClient
 import okhttp3.Protocol
+import okhttp3.Request
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import java.util.Collections
@@ -21,17 +32,116 @@ internal object OkHttpClientProvider {
     var isDev: Boolean = false
     var apiHost: String? = null
 
+    /**
+     * Negotiate HTTP/2 over ALPN, so concurrent api calls share one connection.
+     * Takes effect for calls made after it changes.
+     */
+    var http2Enabled: Boolean = false
+        set(value) {
+            if (field != value) {
+                field = value
+                synchronized(this) { sharedClient = null }
+            }
+        }
+
+    // Idle connections kept across the api host and the hosts mini app resources are cached from.
+    // Over HTTP/1.1 a burst of api calls leaves several connections to the api host, and opening
+    // an app adds one or two per resource host, so OkHttp's default of 5 would close api
+    // connections as soon as an app's resources are fetched. The keep-alive stays at OkHttp's
+    // 5 minutes, so the connection warmUp opens is still there for the first call
+    private const val MAX_IDLE_CONNECTIONS = 10
+    private const val KEEP_ALIVE_MINUTES = 5L
+
+    // Shared by every client so warmed up connections are reused by api calls
+    private val connectionPool = ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES)
+    private val dispatcher = Dispatcher().apply {
+        maxRequestsPerHost = 20
+    }
+
+    private var sharedClient: OkHttpClient? = null
+
+    private val scope = MiniAppExecutors.newScope(MiniAppExecutors.io)
+
     private fun getBaseUrl(): String {
         return apiHost!!
     }
 
     val retrofitFactory: () -> Retrofit = {
         RetrofitFactory(providesMoshi()).create(
-            providesOkHttpClient(),
+            object : Lazy<OkHttpClient> {
+                override fun lazyGet() = getClient()
+            },
             baseUrl = getBaseUrl()
         )
     }
 
+    private fun getClient(): OkHttpClient {
+        return synchronized(this) {
+            sharedClient ?: providesOkHttpClient().also { sharedClient = it }
+        }
+    }
+
+    /**
+     * Client for the static resources of mini apps. It shares the connection pool and dispatcher
+     * of the api client but none of its interceptors, authenticator or pinning, and leaves
+     * redirects to the caller.
+     */
+    val resourceClient: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .followRedirects(false)
+            .followSslRedirects(false)
+            .dispatcher(dispatcher)
+            .connectionPool(connectionPool)
+            .build()
+    }
+
+    /**
+     * Send api calls through [client] instead of the pinned TLS client, e.g. to a local server in tests.
+     * Null goes back to the default client.
+     */
+    @VisibleForTesting
+    fun setClient(client: OkHttpClient?) {
+        synchronized(this) { sharedClient = client }
+    }
+
+    /**
+     * Resolve and connect to the api host, and resolve [hosts], ahead of the first call.
+     * The warm up request skips the api interceptors and the authenticator so it never triggers
+     * a sign in.
+     */
+    fun warmUp(hosts: List<String>) {
+        scope.launch {
+            val client = getClient().newBuilder()
+                .apply {
+                    interceptors().clear()
+                    networkInterceptors().clear()
+                }
+                .authenticator(Authenticator.NONE)
+                .build()
+
+            hosts.mapNotNull { it.ensureProtocol().toHttpUrlOrNull()?.host }.forEach { host ->
+                try {
+                    client.dns.lookup(host)
+                } catch (e: Exception) {
+                    LogTimber.tag("OkHttpClientProvider").d("dns prefetch failed $host: ${e.message}")
+                }
+            }
+
+            val baseUrl = apiHost?.ensureProtocol()?.toHttpUrlOrNull() ?: return@launch
+            try {
+                val request = Request.Builder()
+                    .url(baseUrl.newBuilder().encodedPath("/").build())
+                    .head()
+                    .build()
+                client.newCall(request).execute().close()
+            } catch (e: Exception) {
+                LogTimber.tag("OkHttpClientProvider").d("preconnect failed ${baseUrl.host}: ${e.message}")
+            }
+        }
+    }
+
      private fun OkHttpClient.Builder.addSocketFactory(): OkHttpClient.Builder {
         try {
             val pair = CertUtil.newPinnedSSLSocketFactory()
@@ -43,30 +153,33 @@ internal object OkHttpClientProvider {
         return this
     }
 
-    private fun providesHttpLoggingInterceptor(): HttpLoggingInterceptor {
+    private fun providesHttpLoggingInterceptor(): Interceptor {
         val logger = FormattedJsonHttpLogger(HttpLoggingInterceptor.Level.BODY)
         val interceptor = HttpLoggingInterceptor(logger)
         interceptor.level = HttpLoggingInterceptor.Level.BODY
-        return interceptor
+        // Bodies are only copied and formatted while verbose logs go somewhere
+        return Interceptor { chain ->
+            if (LogTimber.isEnabled(Log.VERBOSE)) interceptor.intercept(chain) else chain.proceed(chain.request())
+        }
     }
 
    private fun providesOkHttpClient() : OkHttpClient {
         val spec = ConnectionSpec.Builder(ConnectionSpec.RESTRICTED_TLS).build()
-        val dispatcher = Dispatcher().apply {
-            maxRequestsPerHost = 20
-        }
+        val protocols = if (http2Enabled) listOf(Protocol.HTTP_2, Protocol.HTTP_1_1) else listOf(Protocol.HTTP_1_1)
         return OkHttpClient.Builder()
-            .protocols(listOf(Protocol.HTTP_1_1))
+            .protocols(protocols)
             .connectTimeout(30, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(60, TimeUnit.SECONDS)
             .addInterceptor(HeadInterceptor())
             .addInterceptor(SessionInterceptor())
-            .addInterceptor(RetryInterceptor())
+            .authenticator(TokenAuthenticator())
             .addInterceptor(CurlLoggingInterceptor())
             .addNetworkInterceptor(providesHttpLoggingInterceptor())
             .addSocketFactory()
             .dispatcher(dispatcher)
+            .connectionPool(connectionPool)
+            .eventListenerFactory(TimingEventListener.FACTORY)
             .connectionSpecs(Collections.singletonList(spec))
             .build()
     }
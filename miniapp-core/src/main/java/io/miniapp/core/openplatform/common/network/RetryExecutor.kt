@@ -0,0 +1,120 @@
+package io.miniapp.core.openplatform.common.network
+
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import kotlinx.coroutines.delay
+import retrofit2.HttpException
+import java.io.IOException
+import java.net.ConnectException
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.cancellation.CancellationException
+import kotlin.random.Random
+
+/**
+ * Retries api calls from the calling coroutine, so a pending retry suspends instead of
+ * holding an OkHttp dispatcher thread.
+ *
+ * Waits use exponential backoff with full jitter, or the server's Retry-After. Only
+ * idempotent calls are retried after the request may have reached the server; any call
+ * is retried when the connection could not be made at all. Each host has a retry budget
+ * of [BUDGET_RATIO] retries per request, so a failing backend does not see its traffic multiplied.
+ */
+internal class RetryExecutor(
+    private val maxRetries: Int = 3,
+    private val baseDelayMs: Long = 500,
+    private val maxDelayMs: Long = 10_000
+) {
+
+    companion object {
+        private const val TAG = "RetryExecutor"
+        private const val BUDGET_RATIO = 0.1
+        private const val BUDGET_MAX_TOKENS = 10.0
+
+        private val RETRYABLE_CODES = setOf(408, 429, 500, 502, 503, 504)
+    }
+
+    private class RetryBudget {
+        private var tokens = BUDGET_MAX_TOKENS
+
+        @Synchronized
+        fun deposit() {
+            tokens = minOf(BUDGET_MAX_TOKENS, tokens + BUDGET_RATIO)
+        }
+
+        @Synchronized
+        fun tryWithdraw(): Boolean {
+            if (tokens < 1) {
+                return false
+            }
+            tokens -= 1
+            return true
+        }
+    }
+
+    private val budgets = ConcurrentHashMap<String, RetryBudget>()
+
+    suspend fun <T> execute(host: String, idempotent: Boolean, block: suspend () -> T): T {
+        val budget = budgets.getOrPut(host) { RetryBudget() }
+        budget.deposit()
+
+        var attempt = 0
+        while (true) {
+            try {
+                return block()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Throwable) {
+                val delayMs = retryDelay(e, attempt, idempotent) ?: throw e
+                if (attempt >= maxRetries) {
+                    throw e
+                }
+                if (!budget.tryWithdraw()) {
+                    LogTimber.tag(TAG).d("retry budget of $host exhausted")
+                    throw e
+                }
+                attempt++
+                LogTimber.tag(TAG).d("retry #$attempt in ${delayMs}ms after ${e.javaClass.simpleName}: ${e.message}")
+                delay(delayMs)
+            }
+        }
+    }
+
+    /**
+     * Delay before the next attempt, or null when [error] must not be retried.
+     */
+    private fun retryDelay(error: Throwable, attempt: Int, idempotent: Boolean): Long? {
+        return when (error) {
+            is HttpException -> {
+                if (!idempotent || error.code() !in RETRYABLE_CODES) {
+                    return null
+                }
+                val retryAfter = retryAfterMs(error) ?: return backoff(attempt)
+                // The server asks for a longer pause than a caller should wait
+                if (retryAfter > maxDelayMs) null else retryAfter
+            }
+            // The request never left the device
+            is UnknownHostException, is ConnectException -> backoff(attempt)
+            is IOException -> {
+                val canceled = error.message?.contains("canceled", ignoreCase = true) == true
+                if (idempotent && !canceled) backoff(attempt) else null
+            }
+            else -> null
+        }
+    }
+
+    private fun backoff(attempt: Int): Long {
+        val cap = minOf(maxDelayMs, baseDelayMs shl attempt.coerceAtMost(16))
+        return Random.nextLong(cap + 1)
+    }
+
+    private fun retryAfterMs(error: HttpException): Long? {
+        val headers = error.response()?.headers() ?: return null
+        val value = headers["Retry-After"] ?: return null
+        value.trim().toLongOrNull()?.also {
+            return it.coerceAtLeast(0) * 1000
+        }
+        return headers.getDate("Retry-After")?.let {
+            (it.time - System.currentTimeMillis()).coerceAtLeast(0)
+        }
+    }
+}
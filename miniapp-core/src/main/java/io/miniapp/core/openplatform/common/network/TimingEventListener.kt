@@ -0,0 +1,124 @@
+package io.miniapp.core.openplatform.common.network
+
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Protocol
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+
+/**
+ * Phase timings of one call in milliseconds, -1 when the phase did not happen,
+ * e.g. no dns/connect/tls for a call served by a pooled connection.
+ */
+internal data class CallTiming(
+    val url: String,
+    val protocol: Protocol?,
+    val dnsMs: Long,
+    val connectMs: Long,
+    val tlsMs: Long,
+    val ttfbMs: Long,
+    val totalMs: Long,
+    val failed: Boolean
+)
+
+/**
+ * Records per phase timings of every call and keeps the most recent ones in [recent].
+ */
+internal class TimingEventListener(private val url: String) : EventListener() {
+
+    companion object {
+        private const val TAG = "NetworkTiming"
+        private const val MAX_RECENT = 50
+
+        private val recentTimings = ArrayDeque<CallTiming>(MAX_RECENT)
+
+        val FACTORY = Factory { call -> TimingEventListener(call.request().url.encodedPath) }
+
+        fun recent(): List<CallTiming> = synchronized(recentTimings) { recentTimings.toList() }
+
+        private fun record(timing: CallTiming) {
+            synchronized(recentTimings) {
+                if (recentTimings.size == MAX_RECENT) {
+                    recentTimings.removeFirst()
+                }
+                recentTimings.addLast(timing)
+            }
+            LogTimber.tag(TAG).d(timing.toString())
+        }
+    }
+
+    private var callStart = 0L
+    private var dnsStart = 0L
+    private var dnsMs = -1L
+    private var connectStart = 0L
+    private var connectMs = -1L
+    private var tlsStart = 0L
+    private var tlsMs = -1L
+    private var requestStart = 0L
+    private var ttfbMs = -1L
+    private var protocol: Protocol? = null
+
+    private fun now() = System.nanoTime()
+
+    private fun since(start: Long) = (now() - start) / 1_000_000
+
+    override fun callStart(call: Call) {
+        callStart = now()
+    }
+
+    override fun dnsStart(call: Call, domainName: String) {
+        dnsStart = now()
+    }
+
+    override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+        dnsMs = since(dnsStart)
+    }
+
+    override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+        connectStart = now()
+    }
+
+    override fun secureConnectStart(call: Call) {
+        tlsStart = now()
+    }
+
+    override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+        tlsMs = since(tlsStart)
+    }
+
+    override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+        connectMs = since(connectStart)
+    }
+
+    override fun connectionAcquired(call: Call, connection: Connection) {
+        protocol = connection.protocol()
+    }
+
+    override fun requestHeadersStart(call: Call) {
+        if (requestStart == 0L) {
+            requestStart = now()
+        }
+    }
+
+    override fun responseHeadersEnd(call: Call, response: Response) {
+        ttfbMs = since(requestStart)
+    }
+
+    override fun callEnd(call: Call) {
+        finish(false)
+    }
+
+    override fun callFailed(call: Call, ioe: IOException) {
+        finish(true)
+    }
+
+    private fun finish(failed: Boolean) {
+        record(CallTiming(url, protocol, dnsMs, connectMs, tlsMs, ttfbMs, since(callStart), failed))
+    }
+}
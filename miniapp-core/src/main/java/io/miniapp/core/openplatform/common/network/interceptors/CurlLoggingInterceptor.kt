@@ -1,6 +1,7 @@
 
 package io.miniapp.core.openplatform.common.network.interceptors
 
+import android.util.Log
 import io.miniapp.core.openplatform.miniapp.utils.LogTimber
 import okhttp3.Interceptor
 import okhttp3.Response
@@ -27,6 +28,9 @@ internal class CurlLoggingInterceptor : Interceptor {
     @Throws(IOException::class)
     override fun intercept(chain: Interceptor.Chain): Response {
         val request = chain.request()
+        if (!LogTimber.isEnabled(Log.DEBUG)) {
+            return chain.proceed(request)
+        }
 
         var compressed = false
 
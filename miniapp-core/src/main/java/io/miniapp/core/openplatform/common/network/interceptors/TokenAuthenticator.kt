@@ -0,0 +1,35 @@
+package io.miniapp.core.openplatform.common.network.interceptors
+
+import io.miniapp.core.openplatform.AuthManager
+import okhttp3.Authenticator
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.Route
+
+/**
+ * Answers 401s without blocking the OkHttp thread.
+ *
+ * If the token was already replaced since the request was sent, the request is repeated with
+ * the new one. Otherwise a single shared refresh is started and the 401 is handed back to the
+ * caller, which awaits that refresh in its coroutine and retries.
+ */
+internal class TokenAuthenticator : Authenticator {
+
+    override fun authenticate(route: Route?, response: Response): Request? {
+        val request = response.request
+        if (isAuthRequest(request) || response.priorResponse != null) {
+            return null
+        }
+
+        val sentToken = request.header("Authorization")?.removePrefix("Bearer ")
+        val token = AuthManager.getToken()
+        if (!token.isNullOrBlank() && token != sentToken) {
+            return request.newBuilder()
+                .header("Authorization", "Bearer $token")
+                .build()
+        }
+
+        AuthManager.onUnauthorized(sentToken)
+        return null
+    }
+}
@@ -0,0 +1,139 @@
+package io.miniapp.core.openplatform.miniapp
+
+import android.net.Uri
+import android.os.SystemClock
+import io.miniapp.core.openplatform.common.apis.data.LaunchMiniAppDto
+import io.miniapp.core.openplatform.common.apis.data.LaunchParams
+import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
+import io.miniapp.core.openplatform.common.data.OpenServiceRepository
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebResourceCache
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.net.InetAddress
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.cancellation.CancellationException
+
+/**
+ * Light alternative to preloading: resolves the app info and the signed launch url of an app
+ * ahead of time without creating a WebView.
+ *
+ * The app origin is resolved so the system resolver has it cached for the WebView, and the
+ * entry page can be stored in [WebResourceCache]. A launch with the same [LaunchParams]
+ * takes the prefetched url instead of requesting one, once and only before it expires.
+ */
+internal object LaunchPrefetcher {
+
+    private const val TAG = "LaunchPrefetcher"
+    private const val MAX_ENTRIES = 64
+    private const val MAX_CONCURRENT = 4
+
+    // Signed launch urls are short lived, stay well inside their validity
+    private const val LAUNCH_URL_TTL_MS = 5 * 60 * 1000L
+
+    private class Prefetched(val params: LaunchParams, val launchInfo: LaunchMiniAppDto, val expiresAt: Long)
+
+    private val lock = Any()
+    private val entries = object : LinkedHashMap<String, Prefetched>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Prefetched>?): Boolean {
+            return size > MAX_ENTRIES
+        }
+    }
+    private val permits = Semaphore(MAX_CONCURRENT)
+
+    private val repository by lazy {
+        OpenServiceRepository.getInstance()
+    }
+
+    private val _hitCount = AtomicInteger()
+    private val _missCount = AtomicInteger()
+
+    // Taken from any thread
+    val hitCount: Int
+        get() = _hitCount.get()
+
+    val missCount: Int
+        get() = _missCount.get()
+
+    /**
+     * @return the app info, or null when it could not be resolved
+     */
+    suspend fun prefetch(
+        miniAppId: String?,
+        botIdOrName: String?,
+        miniAppName: String?,
+        createParams: (appId: String) -> LaunchParams,
+        fetchEntryPage: Boolean
+    ): MiniAppDto? = permits.withPermit {
+        try {
+            val app = when {
+                !miniAppId.isNullOrEmpty() -> repository.requestMiniApp(miniAppId).first()
+                !botIdOrName.isNullOrEmpty() && !miniAppName.isNullOrEmpty() ->
+                    repository.requestMiniApp(appName = miniAppName, botIdOrName = botIdOrName).first()
+                else -> return@withPermit null
+            }
+
+            val params = createParams(app.id)
+            val launchInfo = peek(params) ?: repository.requestLaunchInfo(params).first().also {
+                synchronized(lock) {
+                    entries[app.id] = Prefetched(params, it, SystemClock.elapsedRealtime() + LAUNCH_URL_TTL_MS)
+                }
+            }
+
+            resolveHost(launchInfo.url)
+            if (fetchEntryPage) {
+                WebResourceCache.prefetch(app, launchInfo.url)
+            }
+            LogTimber.tag(TAG).d("prefetched ${app.id}")
+            app
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Throwable) {
+            LogTimber.tag(TAG).d("prefetch failed ${miniAppId ?: miniAppName}: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Take the prefetched launch url for [params], it is handed out once.
+     */
+    fun take(params: LaunchParams): LaunchMiniAppDto? {
+        val entry = synchronized(lock) {
+            entries.remove(params.appId)
+        }
+        val launchInfo = entry?.takeIf {
+            it.params == params && it.expiresAt > SystemClock.elapsedRealtime()
+        }?.launchInfo
+        if (launchInfo != null) _hitCount.incrementAndGet() else _missCount.incrementAndGet()
+        return launchInfo
+    }
+
+    fun clear() {
+        synchronized(lock) {
+            entries.clear()
+        }
+    }
+
+    private fun peek(params: LaunchParams): LaunchMiniAppDto? {
+        synchronized(lock) {
+            val entry = entries[params.appId] ?: return null
+            return entry.launchInfo.takeIf {
+                entry.params == params && entry.expiresAt > SystemClock.elapsedRealtime()
+            }
+        }
+    }
+
+    private suspend fun resolveHost(url: String) {
+        val host = Uri.parse(url).host ?: return
+        withContext(MiniAppExecutors.prefetch) {
+            try {
+                InetAddress.getAllByName(host)
+            } catch (e: Exception) {
+                LogTimber.tag(TAG).d("dns prefetch failed $host: ${e.message}")
+            }
+        }
+    }
+}
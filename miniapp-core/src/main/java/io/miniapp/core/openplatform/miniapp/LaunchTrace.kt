@@ -0,0 +1,53 @@
+package io.miniapp.core.openplatform.miniapp
+
+import android.os.SystemClock
+import androidx.annotation.Keep
+import java.util.EnumMap
+
+/**
+ * Time of each launch stage, in milliseconds since the launch was requested.
+ * Delivered to [IAppDelegate.onLaunchTrace] once the page has finished loading.
+ */
+@Keep
+class LaunchTrace internal constructor(
+    // True when metadata, launch url and WebView were requested concurrently
+    val pipelined: Boolean
+) {
+
+    enum class Stage {
+        METADATA,
+        LAUNCH_URL,
+        WEBVIEW_READY,
+        FIRST_COMMIT,
+        PAGE_FINISHED
+    }
+
+    private val startedAt = SystemClock.elapsedRealtime()
+    private val stages = EnumMap<Stage, Long>(Stage::class.java)
+
+    /**
+     * @return the elapsed time of [stage], or null when it has not been reached or was skipped
+     */
+    @Synchronized
+    fun elapsedMs(stage: Stage): Long? = stages[stage]
+
+    @Synchronized
+    fun snapshot(): Map<Stage, Long> = EnumMap(stages)
+
+    /**
+     * Record [stage] the first time it is reached, returns false when it was already recorded.
+     */
+    @Synchronized
+    internal fun mark(stage: Stage): Boolean {
+        if (stages.containsKey(stage)) {
+            return false
+        }
+        stages[stage] = SystemClock.elapsedRealtime() - startedAt
+        return true
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "LaunchTrace(pipelined=$pipelined, ${stages.entries.joinToString { "${it.key}=${it.value}ms" }})"
+    }
+}
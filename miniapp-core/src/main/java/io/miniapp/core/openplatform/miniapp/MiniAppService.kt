@@ -1,6 +1,7 @@
 package io.miniapp.core.openplatform.miniapp
 import android.content.Context
 import android.graphics.Bitmap
+import android.util.Log
 import android.view.View
 import android.view.ViewGroup
 import android.view.ViewGroup.LayoutParams
@@ -11,6 +12,7 @@ import androidx.annotation.Keep
 import androidx.lifecycle.LifecycleOwner
 import io.miniapp.bridge.BridgeProvider
 import io.miniapp.bridge.BridgeProviderFactory
+import io.miniapp.core.BuildConfig
 import io.miniapp.core.openplatform.ThrowsIllegalStateException
 import org.json.JSONObject
 
@@ -499,6 +501,26 @@ class WebAppLaunchWithParentParameters private constructor(
     }
 }
 
+/**
+ * Cache policy of an app info endpoint.
+ * @property maxAgeMs cached info younger than this is used without a request
+ * @property staleWhileRevalidateMs past [maxAgeMs], cached info is still used for this long while it is revalidated in the background
+ */
+@Keep
+data class CachePolicy(
+    val maxAgeMs: Long,
+    val staleWhileRevalidateMs: Long
+) {
+    companion object {
+        const val ENDPOINT_MINI_APP = "miniapp"
+        const val ENDPOINT_DAPP = "dapp"
+
+        // Always show the cached info and refresh it right away
+        @JvmField
+        val DEFAULT = CachePolicy(maxAgeMs = 0, staleWhileRevalidateMs = Long.MAX_VALUE)
+    }
+}
+
 @Keep
 class AppConfig private constructor(
     val context: Context,
@@ -508,6 +530,18 @@ class AppConfig private constructor(
     val languageCode: String,
     val isDark: Boolean,
     val maxCachePage: Int,
+    val webViewPoolSize: Int,
+    val resourceCacheSize: Long,
+    val requestBatchWindowMs: Long,
+    val cachePolicies: Map<String, CachePolicy>,
+    val http2Enabled: Boolean,
+    val preconnectEnabled: Boolean,
+    val webMessageBridgeEnabled: Boolean,
+    val webViewIdleTimeoutMs: Long,
+    val webViewMaxAgeMs: Long,
+    val logLevel: Int,
+    val logcatEnabled: Boolean,
+    val logFileEnabled: Boolean,
     val resourcesProvider: IResourcesProvider?,
     val bridgeProviderFactory: BridgeProviderFactory? = null,
     val appDelegate: IAppDelegate,
@@ -528,6 +562,18 @@ class AppConfig private constructor(
         private var languageCode: String = "en"
         private var isDark: Boolean = false
         private var maxCachePage: Int = 5
+        private var webViewPoolSize: Int = 1
+        private var resourceCacheSize: Long = 50L * 1024 * 1024
+        private var requestBatchWindowMs: Long = 20
+        private val cachePolicies = HashMap<String, CachePolicy>()
+        private var http2Enabled: Boolean = false
+        private var preconnectEnabled: Boolean = false
+        private var webMessageBridgeEnabled: Boolean = false
+        private var webViewIdleTimeoutMs: Long = 30 * 60 * 1000L
+        private var webViewMaxAgeMs: Long = 6 * 60 * 60 * 1000L
+        private var logLevel: Int = if (BuildConfig.DEBUG) Log.VERBOSE else Log.WARN
+        private var logcatEnabled: Boolean = BuildConfig.DEBUG
+        private var logFileEnabled: Boolean = false
         private var resourcesProvider: IResourcesProvider? = null
         private var bridgeProviderFactory: BridgeProviderFactory? = null
         private var floatWindowWidth: Int = 86
@@ -539,6 +585,18 @@ class AppConfig private constructor(
         fun languageCode(languageCode: String) = apply { this.languageCode = languageCode }
         fun isDark(isDark: Boolean) = apply { this.isDark = isDark }
         fun maxCachePage(maxCachePage: Int) = apply { this.maxCachePage = maxCachePage }
+        fun webViewPoolSize(webViewPoolSize: Int) = apply { this.webViewPoolSize = webViewPoolSize }
+        fun resourceCacheSize(resourceCacheSize: Long) = apply { this.resourceCacheSize = resourceCacheSize }
+        fun requestBatchWindowMs(requestBatchWindowMs: Long) = apply { this.requestBatchWindowMs = requestBatchWindowMs }
+        fun cachePolicy(endpoint: String, policy: CachePolicy) = apply { this.cachePolicies[endpoint] = policy }
+        fun http2Enabled(http2Enabled: Boolean) = apply { this.http2Enabled = http2Enabled }
+        fun preconnectEnabled(preconnectEnabled: Boolean) = apply { this.preconnectEnabled = preconnectEnabled }
+        fun webMessageBridgeEnabled(webMessageBridgeEnabled: Boolean) = apply { this.webMessageBridgeEnabled = webMessageBridgeEnabled }
+        fun webViewIdleTimeoutMs(webViewIdleTimeoutMs: Long) = apply { this.webViewIdleTimeoutMs = webViewIdleTimeoutMs }
+        fun webViewMaxAgeMs(webViewMaxAgeMs: Long) = apply { this.webViewMaxAgeMs = webViewMaxAgeMs }
+        fun logLevel(logLevel: Int) = apply { this.logLevel = logLevel }
+        fun logcatEnabled(logcatEnabled: Boolean) = apply { this.logcatEnabled = logcatEnabled }
+        fun logFileEnabled(logFileEnabled: Boolean) = apply { this.logFileEnabled = logFileEnabled }
         fun resourcesProvider(resourcesProvider: IResourcesProvider?) = apply { this.resourcesProvider = resourcesProvider }
         fun bridgeProviderFactory(bridgeProviderFactory: BridgeProviderFactory?) = apply { this.bridgeProviderFactory = bridgeProviderFactory }
         fun floatWindowSize(width: Int, height: Int) = apply {
@@ -559,6 +617,18 @@ class AppConfig private constructor(
                 languageCode = languageCode,
                 isDark = isDark,
                 maxCachePage = maxCachePage,
+                webViewPoolSize = webViewPoolSize,
+                resourceCacheSize = resourceCacheSize,
+                requestBatchWindowMs = requestBatchWindowMs,
+                cachePolicies = cachePolicies.toMap(),
+                http2Enabled = http2Enabled,
+                preconnectEnabled = preconnectEnabled,
+                webMessageBridgeEnabled = webMessageBridgeEnabled,
+                webViewIdleTimeoutMs = webViewIdleTimeoutMs,
+                webViewMaxAgeMs = webViewMaxAgeMs,
+                logLevel = logLevel,
+                logcatEnabled = logcatEnabled,
+                logFileEnabled = logFileEnabled,
                 resourcesProvider = resourcesProvider,
                 bridgeProviderFactory = bridgeProviderFactory,
                 appDelegate = appDelegate,
@@ -607,6 +677,15 @@ interface MiniAppService {
 
     suspend fun preload(config: WebAppLaunchParameters)
 
+    /**
+     * Resolve the app info and launch url of a mini app ahead of time without creating a WebView,
+     * cheap enough for every app in a list while [preload] is kept for the most likely one.
+     * @param config WebAppPreloadParameters
+     * @param fetchEntryPage also download the entry page into the resource cache
+     * @return Boolean True when the app is ready to launch without waiting for the launch url, false when nothing was prefetched
+     */
+    suspend fun prefetch(config: WebAppLaunchParameters, fetchEntryPage: Boolean = false): Boolean = false
+
     suspend fun launch(config: WebAppLaunchParameters) : IMiniApp?
 
     suspend fun batchGetMiniApps(appIds: List<String>): DataResult<List<MiniAppInfo>?>
@@ -822,4 +901,12 @@ interface IAppDelegate {
      * @param message String?
      */
     fun onApiError(code: Int, message: String?)
+
+    /**
+     * Launch timing of an app, called once its first page has finished loading
+     * @param app the launched app
+     * @param trace LaunchTrace
+     */
+    fun onLaunchTrace(app: IMiniApp, trace: LaunchTrace) {
+    }
 }
\ No newline at end of file
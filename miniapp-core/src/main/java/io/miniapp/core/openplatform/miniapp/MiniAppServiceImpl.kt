@@ -22,9 +22,11 @@ import androidx.lifecycle.lifecycleScope
 import io.miniapp.bridge.BridgeProvider
 import io.miniapp.core.R
 import io.miniapp.core.openplatform.common.apis.data.DAppDto
+import io.miniapp.core.openplatform.common.apis.data.LaunchParams
 import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
-import io.miniapp.core.openplatform.common.data.LRUSharedPreferencesCache
+import io.miniapp.core.openplatform.common.data.IndexedDiskCache
 import io.miniapp.core.openplatform.common.data.OpenServiceRepository
+import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
 import io.miniapp.core.openplatform.common.network.error.MiniAppXError
 import io.miniapp.core.openplatform.common.network.error.toFailure
 import io.miniapp.core.openplatform.miniapp.ui.DefaultResourcesProvider
@@ -32,21 +34,28 @@ import io.miniapp.core.openplatform.miniapp.ui.DefaultWebViewFragment
 import io.miniapp.core.openplatform.miniapp.ui.DefaultWebViewSheet
 import io.miniapp.core.openplatform.miniapp.ui.FloatingWindowManager
 import io.miniapp.core.openplatform.miniapp.ui.webview.DefaultAppWebView
+import io.miniapp.core.openplatform.miniapp.ui.webview.ScriptRegistry
 import io.miniapp.core.openplatform.miniapp.ui.webview.WebAppLruCache
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebResourceCache
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewExpiry
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewPool
 import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
 import io.miniapp.core.openplatform.miniapp.utils.HomeScreenShortcutUtils
+import io.miniapp.core.openplatform.miniapp.utils.LogFileTree
 import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
 import io.miniapp.core.openplatform.miniapp.utils.SchemeUtils
 import io.miniapp.core.openplatform.miniapp.utils.WebViewPermissionUtils
 import io.miniapp.core.openplatform.miniapp.utils.toInfo
+import io.miniapp.core.openplatform.miniapp.utils.toParams
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import retrofit2.HttpException
+import java.io.File
 import java.lang.ref.WeakReference
 import kotlin.Exception
 import kotlin.coroutines.resume
@@ -62,10 +71,14 @@ internal class MiniAppServiceImpl : MiniAppService {
 
         private val MINIAPP = "MINIAPP"
         private val WEBPAGE = "WEBPAGE"
+        private const val LOG_DIR_NAME = "miniapp_logs"
     }
 
     var appConfig: AppConfig? = null
     var mContext: Context? = null
+
+    // Trees planted by setup, replaced when it runs again
+    private var logTrees = emptyList<LogTimber.Tree>()
     var miniAppHost = listOf("https://miniappx.io")
     var appName = "Sample"
     var webAppName = "MiniAppX"
@@ -91,6 +104,19 @@ internal class MiniAppServiceImpl : MiniAppService {
         }  ?: MiniAppXError(404, null)
     }
 
+    private fun plantLogTrees(config: AppConfig) {
+        logTrees.forEach {
+            LogTimber.uproot(it)
+            (it as? LogFileTree)?.close()
+        }
+        logTrees = listOfNotNull(
+            if (config.logcatEnabled) LogTimber.DebugTree() else null,
+            if (config.logFileEnabled) LogFileTree(File(mContext!!.cacheDir, LOG_DIR_NAME)) else null
+        )
+        LogTimber.minPriority = config.logLevel
+        logTrees.forEach { LogTimber.plant(it) }
+    }
+
     override fun setup(config: AppConfig) {
         this.appConfig = config
 
@@ -103,14 +129,25 @@ internal class MiniAppServiceImpl : MiniAppService {
         this.webAppName = config.webAppName
 
         config.apply {
-            LogTimber.plant(LogTimber.DebugTree())
+            plantLogTrees(this)
             AndroidUtils.fillStatusBarHeight(mContext!!, true)
             AndroidUtils.checkAndroidTheme(mContext!!, false)
             AndroidUtils.checkDisplaySize(mContext!!, null)
             DefaultResourcesProvider.setLocale(languageCode)
             DefaultResourcesProvider.setUserInterfaceStyle(isDark)
             ActivityStack.init(context = mContext!!)
-            WebAppLruCache.resize(maxCachePage)
+            WebAppLruCache.init(mContext!!, maxCachePage)
+            WebViewExpiry.idleTimeoutMs = webViewIdleTimeoutMs
+            WebViewExpiry.maxAgeMs = webViewMaxAgeMs
+            WebViewPool.init(mContext!!, webViewPoolSize)
+            WebResourceCache.init(mContext!!, resourceCacheSize)
+            ScriptRegistry.warmUp()
+            OpenServiceRepository.setBatchWindow(requestBatchWindowMs)
+            OpenServiceRepository.setCachePolicies(cachePolicies)
+            OkHttpClientProvider.http2Enabled = http2Enabled
+            if (preconnectEnabled) {
+                OkHttpClientProvider.warmUp(miniAppHost)
+            }
             HomeScreenShortcutUtils.launchScheme = redirectionUrl
         }
     }
@@ -145,6 +182,29 @@ internal class MiniAppServiceImpl : MiniAppService {
         }
     }
 
+    override suspend fun prefetch(config: WebAppLaunchParameters, fetchEntryPage: Boolean): Boolean {
+        if (config !is WebAppPreloadParameters || config.url != null) {
+            return false
+        }
+
+        val themes = (resourcesProvider ?: DefaultResourcesProvider).getThemes()
+        return null != LaunchPrefetcher.prefetch(
+            miniAppId = config.miniAppId,
+            botIdOrName = config.botId ?: config.botName,
+            miniAppName = config.miniAppName,
+            createParams = { appId ->
+                LaunchParams(
+                    appId = appId,
+                    startParams = config.startParam,
+                    peer = config.peer?.toParams(),
+                    themeParams = themes,
+                    languageCode = DefaultResourcesProvider.getLanguageCode()
+                )
+            },
+            fetchEntryPage = fetchEntryPage
+        )
+    }
+
     override suspend fun launch(config: WebAppLaunchParameters) : IMiniApp?  = suspendCancellableCoroutine { continuation ->
 
         // Create a list to store all requests
@@ -164,7 +224,7 @@ internal class MiniAppServiceImpl : MiniAppService {
                         } else {
                             val botName = segments[0]
                             val appName = segments[1]
-                            LRUSharedPreferencesCache.getValue("${botName}_${appName}")
+                            IndexedDiskCache.getValue("${botName}_${appName}")
                         }
                     } else {
                         null
@@ -252,7 +312,7 @@ internal class MiniAppServiceImpl : MiniAppService {
     }
 
     private suspend fun getMiniAppById(appId: String): DataResult<MiniAppDto?> =  suspendCancellableCoroutine { continuation ->
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.requestMiniApp(appId)
                 .catch {
                     it.printStackTrace()
@@ -279,7 +339,7 @@ internal class MiniAppServiceImpl : MiniAppService {
     }
 
     private suspend fun getDAppInfoById(dAppId: String): DataResult<DAppDto?> =  suspendCancellableCoroutine { continuation ->
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.requestDApp(dAppId)
                 .catch {
                     it.printStackTrace()
@@ -303,7 +363,7 @@ internal class MiniAppServiceImpl : MiniAppService {
     }
 
     override suspend fun getShareInfoByCode(code: String): DataResult<Map<String, String?>> =  suspendCancellableCoroutine { continuation ->
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.getAppInfoByShareCode(code)
                 .catch {
                     it.printStackTrace()
@@ -334,7 +394,7 @@ internal class MiniAppServiceImpl : MiniAppService {
     }
 
     private suspend fun getMiniApp(botIdOrName: String, appName: String): MiniAppDto?  =  suspendCancellableCoroutine { continuation ->
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.requestMiniApp(appName, botIdOrName)
                 .catch { throwable ->
                     throwable.printStackTrace()
@@ -351,7 +411,7 @@ internal class MiniAppServiceImpl : MiniAppService {
     }
 
     override suspend fun batchGetMiniApps(appIds: List<String>): DataResult<List<MiniAppInfo>?> =  suspendCancellableCoroutine { continuation ->
-        MainScope().launch {
+        MiniAppExecutors.sdkScope.launch {
             repository.batchRequestMiniApp(appIds)
                 .catch {
                     it.printStackTrace()
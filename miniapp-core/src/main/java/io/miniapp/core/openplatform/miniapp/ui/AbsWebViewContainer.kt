@@ -34,7 +34,12 @@ import io.miniapp.core.openplatform.miniapp.events.WebViewScrollListener
 import io.miniapp.core.openplatform.miniapp.ui.webview.DefaultAppWebView
 import io.miniapp.core.openplatform.miniapp.ui.webview.DefaultWebChromeClient
 import io.miniapp.core.openplatform.miniapp.ui.webview.DefaultWebViewClient
+import io.miniapp.core.openplatform.miniapp.ui.webview.RendererRecovery
+import io.miniapp.core.openplatform.miniapp.ui.webview.ScriptRegistry
 import io.miniapp.core.openplatform.miniapp.ui.webview.WebAppLruCache
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebResourceCache
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewPool
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewSnapshot
 import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
 import io.miniapp.core.openplatform.miniapp.utils.UIContextUtil
 import io.miniapp.core.openplatform.miniapp.webapp.IWebAppEventHandler
@@ -67,6 +72,12 @@ internal abstract class AbsWebViewContainer(
 
     private var isWebViewNoResponse = false
 
+    // Cache state of a WebView created by prepareWebView, consumed by the next loadUrl
+    private var preparedUseCache: Boolean? = null
+
+    // State of a WebView lost with its renderer, applied to its replacement
+    private var pendingRestore: WebViewSnapshot? = null
+
     init {
         parentActivity = UIContextUtil.findActivity(context)
         isFocusable = false
@@ -101,6 +112,10 @@ internal abstract class AbsWebViewContainer(
 
             override fun onPageFinished(view: WebView, url: String) {
                 getBridgeProvider()?.getWebClient()?.onPageFinished(view, url)
+                webView?.takeIf { it.clearHistoryOnLoad && url != "about:blank" }?.apply {
+                    clearHistoryOnLoad = false
+                    clearHistory()
+                }
                 webView?.injectSelect()
                 setPageFinished(url)
             }
@@ -117,27 +132,18 @@ internal abstract class AbsWebViewContainer(
             }
 
             override fun onPageCommitVisible() {
+                setPageCommitVisible()
+                val view = webView ?: return
+                view.injectedJS = true
                 if (isDApp()) {
-                    webView?.injectedJS = true
-                    AndroidUtils.readRes(R.raw.webview_ext)?.replace(
-                        "\$DEBUG$",
-                        "false"
-                    )?.also {
-                        webView?.evaluateJavascript(it, null)
-                    }
-
-                    AndroidUtils.readRes(R.raw.webview_share)?.also {
-                        webView?.evaluateJavascript(it, null)
-                    }
-
+                    ScriptRegistry.inject(
+                        view,
+                        ScriptRegistry.Script.BRIDGE,
+                        ScriptRegistry.Script.EXT,
+                        ScriptRegistry.Script.SHARE
+                    )
                 } else {
-                    webView?.injectedJS = true
-                    AndroidUtils.readRes(R.raw.webview_app_ext)?.replace(
-                        "\$DEBUG$",
-                        "false"
-                    )?.also {
-                        webView?.evaluateJavascript(it, null)
-                    }
+                    ScriptRegistry.inject(view, ScriptRegistry.Script.BRIDGE, ScriptRegistry.Script.APP_EXT)
                 }
             }
 
@@ -187,6 +193,9 @@ internal abstract class AbsWebViewContainer(
 
             override fun onWebviewNoResponse(view: WebView?) {
                 super.onWebviewNoResponse(view)
+                if (recoverFromRendererGone(view)) {
+                    return
+                }
                 isWebViewNoResponse = true
                 dispatchWebviewNoResponse(view)
             }
@@ -196,6 +205,7 @@ internal abstract class AbsWebViewContainer(
                 request: WebResourceRequest?
             ): WebResourceResponse? {
                 return getBridgeProvider()?.getWebClient()?.shouldInterceptRequest(view, request)
+                    ?: if (isDApp()) null else WebResourceCache.intercept(getConfig()?.miniAppDto, request)
             }
 
             override fun onProgressChanged(process: Float) {
@@ -208,6 +218,39 @@ internal abstract class AbsWebViewContainer(
 
     }
 
+    /**
+     * Called before a WebView that lost its renderer is replaced and its page reloaded.
+     */
+    open fun dispatchWebViewRecovering() {
+
+    }
+
+    /**
+     * Replace the WebView after its renderer died with one from the pool, restoring the last
+     * launch url and UI state without asking the backend again.
+     * @return false when the app cannot be recovered in place
+     */
+    private fun recoverFromRendererGone(view: WebView?): Boolean {
+        val dead = webView ?: return false
+        if (view != null && view !== dead) {
+            return false
+        }
+        val url = mUrl ?: return false
+        if (!RendererRecovery.recordCrash(getCacheKey() ?: url)) {
+            return false
+        }
+
+        pendingRestore = WebViewSnapshot.capture(dead, url)
+        WebAppLruCache.remove(dead)
+        removeWebView()
+        dead.releaseAfterRendererGone()
+        webView = null
+
+        dispatchWebViewRecovering()
+        loadUrl(url) { }
+        return true
+    }
+
     open fun doUpdateVisitedHistory(view: WebView?) {
 
     }
@@ -230,9 +273,17 @@ internal abstract class AbsWebViewContainer(
     open fun hideCustomView() {
     }
 
+    open fun setPageCommitVisible() {
+    }
+
     open fun setPageFinished(url:String) {
         webView?.isPageLoaded = true
 
+        pendingRestore?.also {
+            pendingRestore = null
+            webView?.scrollTo(it.scrollX, it.scrollY)
+        }
+
         if (isPageLoaded) {
             webView?.alpha = 1.0f
             return
@@ -355,6 +406,7 @@ internal abstract class AbsWebViewContainer(
                 if (updateUrlOnly) {
 
                 } else {
+                    webView?.resetExpirationTime()
                     headers?.also { h->
                         webView?.loadUrl(url ?: "about:blank", h)
                     } ?: webView?.loadUrl(url ?: "about:blank")
@@ -373,6 +425,7 @@ internal abstract class AbsWebViewContainer(
                         webView?.alpha = 0.0f
                         webView?.isPageLoaded = false
                         webView?.goToHomePage()
+                        webView?.resetExpirationTime()
                         headers?.also { h->
                             webView?.loadUrl(url ?: "about:blank", h)
                         } ?: webView?.loadUrl(url ?: "about:blank")
@@ -412,6 +465,7 @@ internal abstract class AbsWebViewContainer(
             removeAllViews()
         }
         isPageLoaded = false
+        preparedUseCache = null
         webView = null
     }
 
@@ -451,6 +505,7 @@ internal abstract class AbsWebViewContainer(
 
     @SuppressLint("SetJavaScriptEnabled", "AddJavascriptInterface")
     private fun setupWebView(force: Boolean, handler: (Boolean) -> Unit) {
+        preparedUseCache = null
         if (webView != null) {
             webView?.destroy()
             removeWebView()
@@ -485,7 +540,7 @@ internal abstract class AbsWebViewContainer(
                 if (false == getConfig()?.useCache) {
                     goToHomePage()
                 }
-            }} ?: DefaultAppWebView(context.applicationContext)
+            }} ?: WebViewPool.obtain(context.applicationContext)
 
         val setupView : (Boolean) -> Unit = { _ ->
 
@@ -528,6 +583,8 @@ internal abstract class AbsWebViewContainer(
                 webView?.bgColor = null
             }
 
+            pendingRestore?.restoreTo(webView!!)
+
             webView?.setTag(R.id.tag_miniappx_app, getMiniApp())
 
             removeWebView()
@@ -632,7 +689,24 @@ internal abstract class AbsWebViewContainer(
                 removeWebView()
             }
         } else {
+            val prepared = preparedUseCache
+            preparedUseCache = null
+            handler.invoke(prepared ?: true)
+        }
+    }
+
+    /**
+     * Create or check out the WebView ahead of [loadUrl], so it is built while the launch
+     * requests are in flight. The next [loadUrl] sees the same cache state as if it had created it.
+     */
+    fun prepareWebView(handler: (Boolean) -> Unit) {
+        if (webView != null) {
             handler.invoke(true)
+            return
+        }
+        checkCreateWebView { isUseCache ->
+            preparedUseCache = isUseCache
+            handler.invoke(isUseCache)
         }
     }
 
@@ -197,8 +197,9 @@ internal class DefaultWebAppEventHandler(private val context: Context,
                 } catch (e: java.lang.Exception) {
                 }
                 refreshRate = Utilities.clamp(refreshRate, 1000, 20)
-                if (sensors != null && sensors.startAccelerometer(refreshRate)) {
-                    miniAppDelegate.getProxy()?.notifyEventData("accelerometer_started" , null)
+                val effectiveRate = sensors?.startAccelerometer(refreshRate)
+                if (effectiveRate != null) {
+                    miniAppDelegate.getProxy()?.notifyEventData("accelerometer_started" , obj("refresh_rate", effectiveRate))
                 } else {
                     miniAppDelegate.getProxy()?.notifyEventData("accelerometer_failed" , obj("error", "UNSUPPORTED"))
                 }
@@ -219,8 +220,9 @@ internal class DefaultWebAppEventHandler(private val context: Context,
                 } catch (e: java.lang.Exception) {
                 }
                 refreshRate = Utilities.clamp(refreshRate, 1000, 20)
-                if (sensors != null && sensors.startGyroscope(refreshRate)) {
-                    miniAppDelegate.getProxy()?.notifyEventData("gyroscope_started" , null)
+                val effectiveRate = sensors?.startGyroscope(refreshRate)
+                if (effectiveRate != null) {
+                    miniAppDelegate.getProxy()?.notifyEventData("gyroscope_started" , obj("refresh_rate", effectiveRate))
                 } else {
                     miniAppDelegate.getProxy()?.notifyEventData("gyroscope_failed" , obj("error", "UNSUPPORTED"))
                 }
@@ -243,8 +245,9 @@ internal class DefaultWebAppEventHandler(private val context: Context,
                 } catch (e: java.lang.Exception) {
                 }
                 refreshRate = Utilities.clamp(refreshRate, 1000, 20)
-                if (sensors != null && sensors.startOrientation(absolute, refreshRate)) {
-                    miniAppDelegate.getProxy()?.notifyEventData("device_orientation_started" , null)
+                val effectiveRate = sensors?.startOrientation(absolute, refreshRate)
+                if (effectiveRate != null) {
+                    miniAppDelegate.getProxy()?.notifyEventData("device_orientation_started" , obj("refresh_rate", effectiveRate))
                 } else {
                     miniAppDelegate.getProxy()?.notifyEventData("device_orientation_failed" , obj("error", "UNSUPPORTED"))
                 }
@@ -52,6 +52,8 @@ import io.miniapp.core.openplatform.common.network.MoshiProvider
 import io.miniapp.core.openplatform.miniapp.ActivityStack
 import io.miniapp.core.openplatform.miniapp.IMiniApp
 import io.miniapp.core.openplatform.miniapp.IResourcesProvider
+import io.miniapp.core.openplatform.miniapp.LaunchPrefetcher
+import io.miniapp.core.openplatform.miniapp.LaunchTrace
 import io.miniapp.core.openplatform.miniapp.MiniAppServiceImpl
 import io.miniapp.core.openplatform.miniapp.ShareDto
 import io.miniapp.core.openplatform.miniapp.WebAppParameters
@@ -75,6 +77,7 @@ import io.miniapp.core.openplatform.miniapp.utils.BiometrySP
 import io.miniapp.core.openplatform.miniapp.utils.HomeScreenShortcutUtils
 import io.miniapp.core.openplatform.miniapp.utils.JsonUtils
 import io.miniapp.core.openplatform.miniapp.utils.LayoutHelper
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
 import io.miniapp.core.openplatform.miniapp.utils.PERMISSIONS_FOR_ROOM_AVATAR
 import io.miniapp.core.openplatform.miniapp.utils.PermissionsTools
 import io.miniapp.core.openplatform.miniapp.utils.SchemeUtils
@@ -88,12 +91,14 @@ import io.miniapp.core.openplatform.miniapp.webapp.IMiniAppListener
 import io.miniapp.core.openplatform.miniapp.webapp.IWebApp
 import io.miniapp.core.openplatform.miniapp.webapp.IWebAppEventHandler
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import org.json.JSONObject
+import kotlin.coroutines.cancellation.CancellationException
 import kotlin.coroutines.resume
 import kotlin.math.min
 
@@ -181,7 +186,9 @@ internal class DefaultWebViewFragment(
 
     private var loadPageFail = false
 
-    private val allJobs = Job()
+    // Parent of all the work of this mini app, cancelled when it closes
+    private val appJobKey = "miniapp@${Integer.toHexString(System.identityHashCode(this))}"
+    private val allJobs = MiniAppExecutors.appJob(appJobKey)
 
     private var webAppEventProxy: WebAppEventProxy? = null
 
@@ -236,6 +243,9 @@ internal class DefaultWebViewFragment(
         OpenServiceRepository.getInstance()
     }
 
+    // Stages of the launch in progress, handed to the app delegate once the page finishes
+    private var launchTrace: LaunchTrace? = null
+
     private fun updateActionBarTitle() {
         val title = miniAppDto?.title ?: launchConfig?.miniAppName ?: launchConfig?.dAppDto?.title ?: webViewContainer.getWebView()?.pageTitle ?: ""
         actionBar.setTitle( title, null)
@@ -328,6 +338,7 @@ internal class DefaultWebViewFragment(
                 throwable.printStackTrace()
             }.collect {
                 withContext(Dispatchers.Main) {
+                    markLaunchStage(LaunchTrace.Stage.LAUNCH_URL)
                     loadPageFail = false
                     loadUrl(it.redirectUrl)
                     // autoExpandPage()
@@ -340,6 +351,7 @@ internal class DefaultWebViewFragment(
     private fun requestLaunchUrl(force: Boolean = false) {
 
         if(null != launchConfig?.url) {
+            launchTrace = LaunchTrace(pipelined = false)
             loadPageFail = false
             if (true == launchConfig?.isDApp) {
                 request110Url(launchConfig?.url!!, launchConfig?.dAppDto?.id)
@@ -355,56 +367,155 @@ internal class DefaultWebViewFragment(
             return
         }
 
+        val knownAppId = launchConfig?.miniAppId
+        if (!knownAppId.isNullOrEmpty()) {
+            requestLaunchUrlPipelined(knownAppId, force)
+            return
+        }
+
+        launchTrace = LaunchTrace(pipelined = false)
+
         requestMiniAppInfo {
 
             it?.id ?: return@requestMiniAppInfo
 
-            webViewContainer.getWebView()?.appSettings = it.options
-            appSettings = it.options
-            miniAppDto = it
-            pageLoadingView.updateIconUrl(it.iconUrl )
+            markLaunchStage(LaunchTrace.Stage.METADATA)
+            applyMiniAppInfo(it)
 
-            owner.lifecycleScope.launch(Dispatchers.Main + allJobs) {
-                val launchParams = LaunchParams(
-                    appId = it.id,
-                    startParams = launchConfig?.startParam,
-                    peer = launchConfig?.peer?.toParams(),
-                    themeParams = resourcesProvider.getThemes(),
-                    languageCode = DefaultResourcesProvider.getLanguageCode()
-                )
+            val launchParams = createLaunchParams(it.id)
+            LaunchPrefetcher.take(launchParams)?.also { prefetched ->
+                markLaunchStage(LaunchTrace.Stage.LAUNCH_URL)
+                loadLaunchUrl(prefetched.url, force)
+                return@requestMiniAppInfo
+            }
 
+            owner.lifecycleScope.launch(Dispatchers.Main + allJobs) {
                 miniAppRepository.requestLaunchInfo(
                     params = launchParams
                 ).catch { throwable->
-                    loadPageFail = true
-                    val miniAppXError = MiniAppServiceImpl.getInstance().parasError(throwable)
-                    if (miniAppXError.code == 460) {
-                        hideAndDestroy(immediately = true, isSilent = true)
-                    }
-                    launchConfig?.onErrorCallback?.invoke(miniAppXError.code, miniAppXError.error)
+                    onLaunchInfoError(throwable)
                 }.collect {
                     withContext(Dispatchers.Main) {
-                        loadPageFail = false
+                        markLaunchStage(LaunchTrace.Stage.LAUNCH_URL)
+                        loadLaunchUrl(it.url, force)
+                    }
+                }
+            }
+        }
+    }
 
-                        val encodeParams = if (!launchConfig?.params.isNullOrEmpty()) {
-                            val queryBuilder = Uri.Builder()
-                            launchConfig?.params?.forEach { query->
-                                queryBuilder.appendQueryParameter(query.key, query.value)
-                            }
-                            "&"+queryBuilder.build().query
-                        } else {
-                            ""
-                        }
+    /**
+     * The app id is known up front, so the WebView, the app info and the launch url are
+     * requested together and joined before loading the page.
+     */
+    private fun requestLaunchUrlPipelined(appId: String, force: Boolean) {
+        launchTrace = LaunchTrace(pipelined = true)
 
-                        loadUrl(it.url+encodeParams, force)
-                        // autoExpandPage()
-                        // runTestWebApp()
-                    }
+        webViewContainer.prepareWebView {
+            markLaunchStage(LaunchTrace.Stage.WEBVIEW_READY)
+        }
+
+        val launchParams = createLaunchParams(appId)
+        val prefetched = LaunchPrefetcher.take(launchParams)
+        val launchInfo = owner.lifecycleScope.async(Dispatchers.Main + allJobs) {
+            try {
+                val info = prefetched ?: miniAppRepository.requestLaunchInfo(params = launchParams).first()
+                markLaunchStage(LaunchTrace.Stage.LAUNCH_URL)
+                Result.success(info)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (t: Throwable) {
+                Result.failure(t)
+            }
+        }
+
+        var launched = false
+        requestMiniAppInfo {
+
+            if (it?.id == null) {
+                launchInfo.cancel()
+                return@requestMiniAppInfo
+            }
+
+            markLaunchStage(LaunchTrace.Stage.METADATA)
+            applyMiniAppInfo(it)
+
+            // Later emissions only refresh the app info
+            if (launched) {
+                return@requestMiniAppInfo
+            }
+            launched = true
+
+            owner.lifecycleScope.launch(Dispatchers.Main + allJobs) {
+                launchInfo.await().onSuccess { info ->
+                    loadLaunchUrl(info.url, force)
+                }.onFailure { throwable ->
+                    onLaunchInfoError(throwable)
                 }
             }
         }
     }
 
+    private fun applyMiniAppInfo(app: MiniAppDto) {
+        webViewContainer.getWebView()?.appSettings = app.options
+        appSettings = app.options
+        miniAppDto = app
+        pageLoadingView.updateIconUrl(app.iconUrl )
+
+        // The WebView may have been cached before the app info said not to
+        if (true == app.options?.disableCache) {
+            webViewContainer.getWebView()?.also {
+                WebAppLruCache.remove(it)
+            }
+        }
+    }
+
+    private fun createLaunchParams(appId: String): LaunchParams {
+        return LaunchParams(
+            appId = appId,
+            startParams = launchConfig?.startParam,
+            peer = launchConfig?.peer?.toParams(),
+            themeParams = resourcesProvider.getThemes(),
+            languageCode = DefaultResourcesProvider.getLanguageCode()
+        )
+    }
+
+    private fun onLaunchInfoError(throwable: Throwable) {
+        loadPageFail = true
+        val miniAppXError = MiniAppServiceImpl.getInstance().parasError(throwable)
+        if (miniAppXError.code == 460) {
+            hideAndDestroy(immediately = true, isSilent = true)
+        }
+        launchConfig?.onErrorCallback?.invoke(miniAppXError.code, miniAppXError.error)
+    }
+
+    private fun loadLaunchUrl(url: String, force: Boolean) {
+        loadPageFail = false
+
+        val encodeParams = if (!launchConfig?.params.isNullOrEmpty()) {
+            val queryBuilder = Uri.Builder()
+            launchConfig?.params?.forEach { query->
+                queryBuilder.appendQueryParameter(query.key, query.value)
+            }
+            "&"+queryBuilder.build().query
+        } else {
+            ""
+        }
+
+        loadUrl(url+encodeParams, force)
+        // autoExpandPage()
+        // runTestWebApp()
+    }
+
+    private fun markLaunchStage(stage: LaunchTrace.Stage) {
+        val trace = launchTrace ?: return
+        if (!trace.mark(stage) || stage != LaunchTrace.Stage.PAGE_FINISHED) {
+            return
+        }
+        launchTrace = null
+        MiniAppServiceImpl.getInstance().appDelegate?.onLaunchTrace(this, trace)
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     override fun onDestroy(owner: LifecycleOwner) {
         webViewContainer.getWebView()?.setOnTouchListener(null)
@@ -416,6 +527,9 @@ internal class DefaultWebViewFragment(
 
         FloatingWindowManager.closeFloatingWindow(force = true, immediately = true)
 
+        // The sheet path below never reaches our own dismissImmediately
+        MiniAppExecutors.closeApp(appJobKey)
+
         if (defaultDelegate != null) {
             defaultDelegate.dismissImmediately()
         } else {
@@ -547,6 +661,9 @@ internal class DefaultWebViewFragment(
                 setEventHandle(webEventHandler)
 
                 getWebApp()?.also {
+                    // Sensors deliver through the proxy, a new WebView needs new ones
+                    webAppSensors?.stopAll()
+                    webAppSensors = null
                     webAppProxy = WebAppProxy(it, resourcesProvider)
                 }
 
@@ -579,6 +696,7 @@ internal class DefaultWebViewFragment(
                     webView.appSettings = appSettings
                 }
 
+                webAppEventProxy?.release()
                 webAppEventProxy =  WebAppEventProxy(
                     context,
                     resourcesProvider,
@@ -624,7 +742,12 @@ internal class DefaultWebViewFragment(
                 return launchConfig
             }
 
+            override fun setPageCommitVisible() {
+                markLaunchStage(LaunchTrace.Stage.FIRST_COMMIT)
+            }
+
             override fun setPageFinished(url:String) {
+                markLaunchStage(LaunchTrace.Stage.PAGE_FINISHED)
                 if (!isPageLoaded) {
                     webAppProxy?.notifyVisibleChange(true)
                     getWebView()?.orientationLocked?.also {
@@ -706,6 +829,14 @@ internal class DefaultWebViewFragment(
                 WebAppLruCache.removeAll()
             }
 
+            override fun dispatchWebViewRecovering() {
+                progressView.setLoadProgress(0f)
+                progressView.setAlpha(1f)
+                progressView.visibility = VISIBLE
+                pageLoadingView.showLoading()
+                webAppSensors?.stopAll()
+            }
+
             override fun doUpdateVisitedHistory(view: WebView?) {
                 if (!isDApp()) {
                     isOpenDappOnMainFrame = !isMainHost(view?.url?.toUri())
@@ -1421,7 +1552,7 @@ internal class DefaultWebViewFragment(
     }
     override fun dismissImmediately(isSilent: Boolean, complete: (() -> Unit)?) {
 
-        allJobs.cancel()
+        MiniAppExecutors.closeApp(appJobKey)
 
         webViewContainer.getWebView()?.also {
             launchConfig?.bridgeProvider?.onWebViewDestroy(webView = it)
@@ -2128,6 +2259,7 @@ internal class DefaultWebViewFragment(
 
     private fun loadUrl(url: String, force: Boolean = false) {
         webViewContainer.loadUrl(url = url, force = force) { isUseCache->
+            markLaunchStage(LaunchTrace.Stage.WEBVIEW_READY)
             if (!isUseCache)
                 pageLoadingView.showLoading()
         }
@@ -2219,6 +2351,7 @@ internal class DefaultWebViewFragment(
             return
         }
         dismissed = true
+        MiniAppExecutors.closeApp(appJobKey)
 
         if (isPreload) {
             releaseRef()
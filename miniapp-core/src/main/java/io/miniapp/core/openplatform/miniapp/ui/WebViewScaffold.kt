@@ -7,9 +7,10 @@ import android.webkit.CookieManager
 import android.webkit.WebSettings
 import android.webkit.WebView
 import io.miniapp.core.BuildConfig
-import io.miniapp.core.R
 import io.miniapp.core.openplatform.miniapp.MiniAppServiceImpl
 import io.miniapp.core.openplatform.miniapp.ui.webview.DefaultAppWebView
+import io.miniapp.core.openplatform.miniapp.ui.webview.ScriptRegistry
+import io.miniapp.core.openplatform.miniapp.ui.webview.WebMessageBridge
 import io.miniapp.core.openplatform.miniapp.ui.webview.WebViewJsBridge
 import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
 import io.miniapp.core.openplatform.miniapp.utils.LogTimber
@@ -20,14 +21,7 @@ import org.json.JSONObject
  * Inject custom select and datetime picker scripts into WebView
  */
 internal fun WebView.injectSelect() {
-    // Inject custom select picker script
-    AndroidUtils.readRes(R.raw.webview_select)?.also {
-        evaluateJavascript(it, null)
-    }
-    // Inject datetime picker script
-    AndroidUtils.readRes(R.raw.webview_datetime)?.also {
-        evaluateJavascript(it, null)
-    }
+    ScriptRegistry.inject(this, ScriptRegistry.Script.SELECT, ScriptRegistry.Script.DATETIME)
 }
 
 @SuppressLint("SetJavaScriptEnabled")
@@ -112,6 +106,10 @@ internal fun DefaultAppWebView.registerWebTouchEvent() {
     addJavascriptInterface(this, "RunTimeWebviewProxy")
     // Register JS Bridge for native UI components (select, date, time pickers)
     addJavascriptInterface(WebViewJsBridge(this), "NativeUIBridge")
+    // WebMessage channel, the interfaces above stay as fallback
+    if (messageBridge == null && true == MiniAppServiceImpl.getInstance().appConfig?.webMessageBridgeEnabled) {
+        messageBridge = WebMessageBridge.install(this, this)
+    }
 }
 
 internal fun DefaultAppWebView.getPageData(complete: ()-> Unit) {
@@ -0,0 +1,150 @@
+package io.miniapp.core.openplatform.miniapp.ui.proxy
+
+import android.content.Context
+import android.hardware.Sensor
+import android.hardware.SensorEvent
+import android.hardware.SensorEventListener
+import android.hardware.SensorManager
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.util.SparseArray
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.sqrt
+
+/**
+ * One registration per sensor type, shared by every mini app streaming from it.
+ *
+ * A sensor is registered at the shortest sampling period its subscribers need, clamped to what
+ * the sensor supports, and re-registered only when that period changes. Samples go into the
+ * channel's [SensorSampleRing] where each subscriber picks them at its own rate. Everything but
+ * [sensorManager] runs on the sensor thread behind [handler].
+ */
+internal object SensorHub {
+
+    private const val TAG = "SensorHub"
+    private const val RING_CAPACITY = 64
+
+    private val thread by lazy {
+        HandlerThread("sensorThread", Process.THREAD_PRIORITY_DISPLAY).apply { start() }
+    }
+
+    val handler by lazy {
+        Handler(thread.looper)
+    }
+
+    @Volatile
+    private var sensorManager: SensorManager? = null
+
+    private val channels = SparseArray<Channel>()
+
+    private val _registrations = AtomicLong()
+
+    /**
+     * Times a sensor was registered with the system, re-registrations included.
+     */
+    val registrations: Long
+        get() = _registrations.get()
+
+    interface Subscriber {
+        /**
+         * Microseconds between the samples this subscriber needs.
+         */
+        val samplingPeriodUs: Int
+
+        fun onSample()
+    }
+
+    class Channel(val sensor: Sensor) : SensorEventListener {
+
+        val samples = SensorSampleRing(RING_CAPACITY, if (sensor.type == Sensor.TYPE_GAME_ROTATION_VECTOR) 4 else 3)
+
+        /**
+         * Period the sensor is registered at, 0 while it is not.
+         */
+        var samplingPeriodUs = 0
+            internal set
+
+        internal val subscribers = ArrayList<Subscriber>()
+
+        private val quaternion = FloatArray(4)
+
+        override fun onSensorChanged(event: SensorEvent) {
+            val values = event.values
+            if (sensor.type == Sensor.TYPE_GAME_ROTATION_VECTOR && values.size < 4) {
+                // Without the scalar part, derive it the way getRotationMatrixFromVector does
+                quaternion[0] = values[0]
+                quaternion[1] = values[1]
+                quaternion[2] = values[2]
+                quaternion[3] = sqrt(maxOf(0f, 1 - values[0] * values[0] - values[1] * values[1] - values[2] * values[2]))
+                samples.write(quaternion, event.timestamp)
+            } else {
+                samples.write(values, event.timestamp)
+            }
+            for (i in subscribers.indices) {
+                subscribers[i].onSample()
+            }
+        }
+
+        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+        }
+    }
+
+    fun sensorManager(context: Context): SensorManager? {
+        return sensorManager ?: (context.applicationContext.getSystemService(Context.SENSOR_SERVICE) as SensorManager?)?.also {
+            sensorManager = it
+        }
+    }
+
+    /**
+     * Join the registration of [sensor], starting it or shortening its period as needed.
+     */
+    fun subscribe(sensor: Sensor, subscriber: Subscriber): Channel {
+        val channel = channels[sensor.type] ?: Channel(sensor).also {
+            channels.put(sensor.type, it)
+        }
+        if (subscriber !in channel.subscribers) {
+            channel.subscribers.add(subscriber)
+        }
+        update(channel)
+        return channel
+    }
+
+    fun unsubscribe(channel: Channel, subscriber: Subscriber) {
+        if (!channel.subscribers.remove(subscriber)) {
+            return
+        }
+        if (channel.subscribers.isNotEmpty()) {
+            update(channel)
+            return
+        }
+        sensorManager?.unregisterListener(channel)
+        channels.remove(channel.sensor.type)
+        channel.samplingPeriodUs = 0
+        channel.samples.clear()
+        LogTimber.tag(TAG).d("${channel.sensor.name} unregistered")
+    }
+
+    private fun update(channel: Channel) {
+        val sensor = channel.sensor
+        var periodUs = channel.subscribers.minOf { it.samplingPeriodUs }
+        periodUs = maxOf(periodUs, sensor.minDelay)
+        if (sensor.maxDelay > 0) {
+            periodUs = minOf(periodUs, sensor.maxDelay)
+        }
+        if (periodUs == channel.samplingPeriodUs) {
+            return
+        }
+        val manager = sensorManager ?: return
+        if (channel.samplingPeriodUs > 0) {
+            manager.unregisterListener(channel)
+        }
+        // Let the sensor hub hold samples for up to half a period instead of waking us for each
+        val maxReportLatencyUs = if (sensor.fifoMaxEventCount > 0) periodUs / 2 else 0
+        manager.registerListener(channel, sensor, periodUs, maxReportLatencyUs, handler)
+        channel.samplingPeriodUs = periodUs
+        _registrations.incrementAndGet()
+        LogTimber.tag(TAG).d("${sensor.name} registered at ${periodUs}us for ${channel.subscribers.size} subscribers")
+    }
+}
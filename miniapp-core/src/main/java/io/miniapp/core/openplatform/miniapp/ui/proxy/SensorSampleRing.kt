@@ -0,0 +1,124 @@
+package io.miniapp.core.openplatform.miniapp.ui.proxy
+
+/**
+ * Fixed size ring of sensor samples, [stride] floats and a timestamp each.
+ *
+ * Preallocated and never resized, so recording a sample does not allocate. Not thread safe,
+ * writes and reads happen on the sensor thread.
+ */
+internal class SensorSampleRing(private val capacity: Int, val stride: Int) {
+
+    private val values = FloatArray(capacity * stride)
+    private val timestamps = LongArray(capacity)
+
+    /**
+     * Samples written since the last [clear], the latest one sits in slot `(written - 1) % capacity`.
+     */
+    var written = 0L
+        private set
+
+    val isEmpty: Boolean
+        get() = written == 0L
+
+    /**
+     * Record [sample], extra values are dropped and missing ones are zero.
+     */
+    fun write(sample: FloatArray, timestampNs: Long) {
+        val slot = (written % capacity).toInt()
+        val offset = slot * stride
+        val count = minOf(stride, sample.size)
+        System.arraycopy(sample, 0, values, offset, count)
+        for (i in count until stride) {
+            values[offset + i] = 0f
+        }
+        timestamps[slot] = timestampNs
+        written++
+    }
+
+    /**
+     * Copy the latest sample into [out].
+     * @return its timestamp, or -1 while the ring is empty
+     */
+    fun latest(out: FloatArray): Long {
+        if (written == 0L) {
+            return -1
+        }
+        val slot = ((written - 1) % capacity).toInt()
+        System.arraycopy(values, slot * stride, out, 0, stride)
+        return timestamps[slot]
+    }
+
+    /**
+     * Linearly interpolate into [out] the value at [timestampNs], clamped to the oldest and the
+     * latest sample the ring holds.
+     * @return false while the ring is empty
+     */
+    fun sampleAt(timestampNs: Long, out: FloatArray): Boolean {
+        if (written == 0L) {
+            return false
+        }
+        val oldest = maxOf(0L, written - capacity)
+        var later = written - 1
+        while (later > oldest && timestamps[slot(later - 1)] > timestampNs) {
+            later--
+        }
+        val laterOffset = slot(later) * stride
+        val laterTime = timestamps[slot(later)]
+        if (later == oldest || laterTime <= timestampNs) {
+            System.arraycopy(values, laterOffset, out, 0, stride)
+            return true
+        }
+        val earlierOffset = slot(later - 1) * stride
+        val earlierTime = timestamps[slot(later - 1)]
+        val fraction = (timestampNs - earlierTime).toFloat() / (laterTime - earlierTime)
+        for (i in 0 until stride) {
+            val from = values[earlierOffset + i]
+            out[i] = from + (values[laterOffset + i] - from) * fraction
+        }
+        return true
+    }
+
+    /**
+     * Add up into [out] the samples written after sequence [since], as far back as the ring holds.
+     * @return how many samples were added
+     */
+    fun sumSince(since: Long, out: FloatArray): Int {
+        out.fill(0f, 0, stride)
+        val from = maxOf(since, written - capacity, 0L)
+        for (sequence in from until written) {
+            val offset = (sequence % capacity).toInt() * stride
+            for (i in 0 until stride) {
+                out[i] += values[offset + i]
+            }
+        }
+        return (written - from).toInt()
+    }
+
+    private fun slot(sequence: Long): Int {
+        return (sequence % capacity).toInt()
+    }
+
+    fun clear() {
+        written = 0
+    }
+}
+
+/**
+ * Append [value] with four decimals, without going through a boxed number or a formatter.
+ */
+internal fun StringBuilder.appendFixed(value: Float): StringBuilder {
+    if (value.isNaN() || value.isInfinite()) {
+        return append('0')
+    }
+    var scaled = Math.round(value * 10000.0)
+    if (scaled < 0) {
+        append('-')
+        scaled = -scaled
+    }
+    append(scaled / 10000).append('.')
+    val fraction = (scaled % 10000).toInt()
+    if (fraction < 1000) append('0')
+    if (fraction < 100) append('0')
+    if (fraction < 10) append('0')
+    return append(fraction)
+}
@@ -9,6 +9,7 @@ import io.miniapp.core.openplatform.miniapp.MiniAppServiceImpl
 import io.miniapp.core.openplatform.miniapp.utils.BiometrySP
 import io.miniapp.core.openplatform.miniapp.utils.LogTimber
 import io.miniapp.core.openplatform.miniapp.webapp.IMiniAppDelegate
+import io.miniapp.core.openplatform.miniapp.webapp.WebEventBus
 import kotlinx.coroutines.launch
 import org.json.JSONObject
 
@@ -28,7 +29,7 @@ internal class WebAppEventProxy(private val context: Context,
     init {
         webApp?.addObserver(owner.lifecycle)
 
-        webApp?.subscribeMessage("web_app_invoke_custom_method") { eventData->
+        webApp?.subscribeMessage("web_app_invoke_custom_method", WebEventBus.BackgroundSubscriber { eventData->
             owner.lifecycleScope.launch {
                 eventData?.also {
                     try {
@@ -67,17 +68,17 @@ internal class WebAppEventProxy(private val context: Context,
                 }
             }
             true
-        }
+        })
 
 
-        webApp?.subscribeMessage("web_app_biometry_get_info") { eventData ->
+        webApp?.subscribeMessage("web_app_biometry_get_info", WebEventBus.BackgroundSubscriber { eventData ->
             owner.lifecycleScope.launch {
                 val canUseBiometryAuth = MiniAppServiceImpl.getInstance().appDelegate?.canUseBiometryAuth(miniApp) ?: false
                 sp?.availableType = if(canUseBiometryAuth) "unknown" else null
                 webApp.postCommonEventToMiniApp("biometry_info_received", sp?.getStatus())
             }
             true
-        }
+        })
 
         webApp?.subscribeMessage("web_app_biometry_request_access") { eventData ->
             if (true== sp?.disabled) {
@@ -20,33 +20,11 @@ internal class WebAppProxy(val webApp: IWebApp, val resourcesProvider: IResource
         webApp.postCommonEventToMiniApp(eventType, eventData)
     }
 
-    fun notifyAccelerometerChanged(eventData: JSONObject) {
-        try {
-            val data = JSONObject()
-            data
-            webApp.postCommonEventToMiniApp("accelerometer_changed", eventData)
-        } catch (e: JSONException) {
-            e.printStackTrace()
-        }
-    }
-    fun notifyGyroscopeChanged(eventData: JSONObject) {
-        try {
-            val data = JSONObject()
-            data
-            webApp.postCommonEventToMiniApp("gyroscope_changed", eventData)
-        } catch (e: JSONException) {
-            e.printStackTrace()
-        }
-    }
-
-    fun notifyDeviceOrientationChanged(eventData: JSONObject) {
-        try {
-            val data = JSONObject()
-            data
-            webApp.postCommonEventToMiniApp("device_orientation_changed", eventData)
-        } catch (e: JSONException) {
-            e.printStackTrace()
-        }
+    /**
+     * Sensor frame already encoded as JSON on the sensor thread.
+     */
+    fun notifySensorFrame(eventType: String, eventData: String) {
+        webApp.postRawEventToMiniApp(eventType, eventData)
     }
 
     fun notifyVisibleChange(isVisible: Boolean) {
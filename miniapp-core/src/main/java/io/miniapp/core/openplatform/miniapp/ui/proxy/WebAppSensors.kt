@@ -2,192 +2,138 @@ package io.miniapp.core.openplatform.miniapp.ui.proxy
 
 import android.content.Context
 import android.hardware.Sensor
-import android.hardware.SensorEvent
-import android.hardware.SensorEventListener
 import android.hardware.SensorManager
-import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
-import org.json.JSONObject
-
+import android.os.SystemClock
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.sqrt
+
+/**
+ * Motion sensors of a mini app.
+ *
+ * Streams subscribe to the shared registrations of [SensorHub] and deliver frames at exactly the
+ * requested refresh rate, on a fixed timeline: values are interpolated between the two samples
+ * around the frame time, rates are averaged over the frame. The rate a stream really delivers,
+ * bounded by the fastest the sensor can sample, is returned on start so the page can be told.
+ * Frames are encoded straight into a JSON string on the sensor thread, so the main thread only
+ * sees the once per frame flush of the web event outbox.
+ */
 internal class WebAppSensors(val context: Context, val webAppProxy: WebAppProxy) {
 
+    companion object {
+        private const val TAG = "WebAppSensors"
+        private const val RATE_WINDOW_MS = 5000L
+
+        private val _samplesReceived = AtomicLong()
+        private val _framesDelivered = AtomicLong()
+
+        val samplesReceived: Long
+            get() = _samplesReceived.get()
+
+        val framesDelivered: Long
+            get() = _framesDelivered.get()
+    }
+
     private var sensorManager: SensorManager? = null
 
     private var accelerometer: Sensor? = null
-    private var accelerometerDesiredRefreshRate: Long = 0
     private var gyroscope: Sensor? = null
-    private var gyroscopeDesiredRefreshRate: Long = 0
     private var orientationMagnetometer: Sensor? = null
     private var orientationAccelerometer: Sensor? = null
-    private var absoluteOrientationDesiredRefreshRate: Long = 0
     private var rotation: Sensor? = null
-    private var relativeOrientationDesiredRefreshRate: Long = 0
+
+    private val accelerometerStream = AccelerometerStream()
+    private val gyroscopeStream = GyroscopeStream()
+    private val absoluteOrientationStream = AbsoluteOrientationStream()
+    private val relativeOrientationStream = RelativeOrientationStream()
+
+    private val streams = arrayOf(
+        accelerometerStream,
+        gyroscopeStream,
+        absoluteOrientationStream,
+        relativeOrientationStream
+    )
 
     init {
-        sensorManager = context.getSystemService(Context.SENSOR_SERVICE) as SensorManager?
+        sensorManager = SensorHub.sensorManager(context)
     }
 
     fun detach() {
         pause()
     }
 
-    fun startAccelerometer(refreshRate: Long): Boolean {
-        if (sensorManager == null) return false
-        if (accelerometer != null) return true
-        accelerometer = sensorManager?.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)
-        if (accelerometer == null) return false
-        accelerometerDesiredRefreshRate = refreshRate
-        if (!paused) {
-            sensorManager?.registerListener(
-                accelerometerListener,
-                accelerometer,
-                getSensorDelay(refreshRate)
-            )
-        }
-        return true
+    /**
+     * Start, or change the rate of, the accelerometer stream.
+     * @return the refresh rate in ms that will be delivered, null when there is no accelerometer
+     */
+    fun startAccelerometer(refreshRate: Long): Long? {
+        val manager = sensorManager ?: return null
+        val sensor = accelerometer ?: manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) ?: return null
+        accelerometer = sensor
+        return accelerometerStream.start(refreshRate, sensor)
     }
 
     fun stopAccelerometer(): Boolean {
         if (sensorManager == null) return false
         if (accelerometer == null) return true
-        if (!paused) {
-            sensorManager?.unregisterListener(accelerometerListener, accelerometer)
-        }
-        if (accelerometerListenerPostponed != null) {
-            UiThreadUtil.cancelRunOnUIThread(accelerometerListenerPostponed)
-            accelerometerListenerPostponed = null
-        }
+        accelerometerStream.stop()
         accelerometer = null
         return true
     }
 
-    fun startGyroscope(refreshRate: Long): Boolean {
-        if (sensorManager == null) return false
-        if (gyroscope != null) return true
-        gyroscope = sensorManager?.getDefaultSensor(Sensor.TYPE_GYROSCOPE)
-        if (gyroscope == null) return false
-        gyroscopeDesiredRefreshRate = refreshRate
-        if (!paused) {
-            sensorManager?.registerListener(
-                gyroscopeListener,
-                gyroscope,
-                getSensorDelay(refreshRate)
-            )
-        }
-        return true
+    /**
+     * Start, or change the rate of, the gyroscope stream.
+     * @return the refresh rate in ms that will be delivered, null when there is no gyroscope
+     */
+    fun startGyroscope(refreshRate: Long): Long? {
+        val manager = sensorManager ?: return null
+        val sensor = gyroscope ?: manager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) ?: return null
+        gyroscope = sensor
+        return gyroscopeStream.start(refreshRate, sensor)
     }
 
     fun stopGyroscope(): Boolean {
         if (sensorManager == null) return false
         if (gyroscope == null) return true
-        if (!paused) {
-            sensorManager?.unregisterListener(gyroscopeListener, gyroscope)
-        }
-        if (gyroscopeListenerPostponed != null) {
-            UiThreadUtil.cancelRunOnUIThread(gyroscopeListenerPostponed)
-            gyroscopeListenerPostponed = null
-        }
+        gyroscopeStream.stop()
         gyroscope = null
         return true
     }
 
-    fun startOrientation(absolute: Boolean, refreshRate: Long): Boolean {
-        if (sensorManager == null) return false
+    /**
+     * Start, or change the rate of, the device orientation stream.
+     * @return the refresh rate in ms that will be delivered, null when the sensors are missing
+     */
+    fun startOrientation(absolute: Boolean, refreshRate: Long): Long? {
+        val manager = sensorManager ?: return null
         if (absolute) {
             if (rotation != null) {
-                if (relativeOrientationListenerPostponed != null) {
-                    UiThreadUtil.cancelRunOnUIThread(relativeOrientationListenerPostponed)
-                    relativeOrientationListenerPostponed = null
-                }
-                if (!paused) {
-                    if (rotation != null) {
-                        sensorManager?.unregisterListener(relativeOrientationListener, rotation)
-                    }
-                }
+                relativeOrientationStream.stop()
                 rotation = null
             }
-            if (orientationMagnetometer != null && orientationAccelerometer != null) return true
-            orientationAccelerometer = sensorManager?.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)
-            orientationMagnetometer = sensorManager?.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD)
-            if (orientationAccelerometer == null || orientationMagnetometer == null) return false
-            absoluteOrientationDesiredRefreshRate = refreshRate
-            if (!paused) {
-                sensorManager?.registerListener(
-                    absoluteOrientationListener,
-                    orientationAccelerometer,
-                    getSensorDelay(refreshRate)
-                )
-                sensorManager?.registerListener(
-                    absoluteOrientationListener,
-                    orientationMagnetometer,
-                    getSensorDelay(refreshRate)
-                )
-            }
+            val gravitySensor = orientationAccelerometer ?: manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)
+            val magneticSensor = orientationMagnetometer ?: manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD)
+            if (gravitySensor == null || magneticSensor == null) return null
+            orientationAccelerometer = gravitySensor
+            orientationMagnetometer = magneticSensor
+            return absoluteOrientationStream.start(refreshRate, gravitySensor, magneticSensor)
         } else {
             if (orientationMagnetometer != null || orientationAccelerometer != null) {
-                if (absoluteOrientationListenerPostponed != null) {
-                    UiThreadUtil.cancelRunOnUIThread(absoluteOrientationListenerPostponed)
-                    absoluteOrientationListenerPostponed = null
-                }
-                if (!paused) {
-                    if (orientationAccelerometer != null) {
-                        sensorManager?.unregisterListener(
-                            absoluteOrientationListener,
-                            orientationAccelerometer
-                        )
-                    }
-                    if (orientationMagnetometer != null) {
-                        sensorManager?.unregisterListener(
-                            absoluteOrientationListener,
-                            orientationMagnetometer
-                        )
-                    }
-                }
+                absoluteOrientationStream.stop()
                 orientationAccelerometer = null
                 orientationMagnetometer = null
             }
-            if (rotation != null) return true
-            rotation = sensorManager?.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR)
-            if (rotation == null) return false
-            relativeOrientationDesiredRefreshRate = refreshRate
-            if (!paused) {
-                sensorManager?.registerListener(
-                    relativeOrientationListener,
-                    rotation,
-                    getSensorDelay(refreshRate)
-                )
-            }
+            val sensor = rotation ?: manager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR) ?: return null
+            rotation = sensor
+            return relativeOrientationStream.start(refreshRate, sensor)
         }
-        return true
     }
 
     fun stopOrientation(): Boolean {
         if (sensorManager == null) return false
         if (orientationAccelerometer == null && orientationMagnetometer == null && rotation == null) return true
-        if (!paused) {
-            if (orientationAccelerometer != null) {
-                sensorManager?.unregisterListener(
-                    absoluteOrientationListener,
-                    orientationAccelerometer
-                )
-            }
-            if (orientationMagnetometer != null) {
-                sensorManager?.unregisterListener(
-                    absoluteOrientationListener,
-                    orientationMagnetometer
-                )
-            }
-            if (rotation != null) {
-                sensorManager?.unregisterListener(relativeOrientationListener, rotation)
-            }
-        }
-        if (absoluteOrientationListenerPostponed != null) {
-            UiThreadUtil.cancelRunOnUIThread(absoluteOrientationListenerPostponed)
-            absoluteOrientationListenerPostponed = null
-        }
-        if (relativeOrientationListenerPostponed != null) {
-            UiThreadUtil.cancelRunOnUIThread(relativeOrientationListenerPostponed)
-            relativeOrientationListenerPostponed = null
-        }
+        absoluteOrientationStream.stop()
+        relativeOrientationStream.stop()
         orientationAccelerometer = null
         orientationMagnetometer = null
         rotation = null
@@ -200,299 +146,235 @@ internal class WebAppSensors(val context: Context, val webAppProxy: WebAppProxy)
         stopAccelerometer()
     }
 
-    // SENSOR_DELAY_NORMAL — 160ms
-    // SENSOR_DELAY_UI — 60ms
-    // SENSOR_DELAY_GAME — 20ms
-    private fun getSensorDelay(refreshRate: Long): Int {
-        if (refreshRate >= 160) return SensorManager.SENSOR_DELAY_NORMAL
-        if (refreshRate >= 60) return SensorManager.SENSOR_DELAY_UI
-        return SensorManager.SENSOR_DELAY_GAME
-    }
-
+    @Volatile
     private var paused = false
 
     fun pause() {
         if (paused) return
         paused = true
-
-        if (sensorManager != null) {
-            if (accelerometer != null) {
-                sensorManager?.unregisterListener(accelerometerListener, accelerometer)
-            }
-            if (accelerometerListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(accelerometerListenerPostponed)
-                accelerometerListenerPostponed = null
-            }
-            if (gyroscope != null) {
-                sensorManager?.unregisterListener(gyroscopeListener, gyroscope)
-            }
-            if (gyroscopeListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(gyroscopeListenerPostponed)
-                gyroscopeListenerPostponed = null
-            }
-            if (orientationAccelerometer != null) {
-                sensorManager?.unregisterListener(
-                    absoluteOrientationListener,
-                    orientationAccelerometer
-                )
-            }
-            if (orientationMagnetometer != null) {
-                sensorManager?.unregisterListener(
-                    absoluteOrientationListener,
-                    orientationMagnetometer
-                )
-            }
-            if (absoluteOrientationListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(absoluteOrientationListenerPostponed)
-                absoluteOrientationListenerPostponed = null
-            }
-            if (rotation != null) {
-                sensorManager?.unregisterListener(relativeOrientationListener, rotation)
-            }
-            if (relativeOrientationListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(relativeOrientationListenerPostponed)
-                relativeOrientationListenerPostponed = null
-            }
-        }
+        streams.forEach { it.pause() }
     }
 
     fun resume() {
         if (!paused) return
         paused = false
+        streams.forEach { it.resume() }
+    }
 
-        if (sensorManager != null) {
-            if (accelerometer != null) {
-                sensorManager?.registerListener(
-                    accelerometerListener,
-                    accelerometer,
-                    getSensorDelay(accelerometerDesiredRefreshRate)
-                )
-            }
-            if (gyroscope != null) {
-                sensorManager?.registerListener(
-                    gyroscopeListener,
-                    gyroscope,
-                    getSensorDelay(gyroscopeDesiredRefreshRate)
-                )
-            }
-            if (orientationAccelerometer != null) {
-                sensorManager?.registerListener(
-                    absoluteOrientationListener,
-                    orientationAccelerometer,
-                    getSensorDelay(absoluteOrientationDesiredRefreshRate)
-                )
-            }
-            if (orientationMagnetometer != null) {
-                sensorManager?.registerListener(
-                    absoluteOrientationListener,
-                    orientationMagnetometer,
-                    getSensorDelay(absoluteOrientationDesiredRefreshRate)
-                )
-            }
-            if (rotation != null) {
-                sensorManager?.registerListener(
-                    relativeOrientationListener,
-                    rotation,
-                    getSensorDelay(relativeOrientationDesiredRefreshRate)
-                )
+    /**
+     * One event type delivered to the page. Everything but [start], [stop], [pause] and [resume]
+     * runs on the sensor thread, those four post their work there.
+     */
+    private abstract inner class SensorStream(private val eventType: String) : SensorHub.Subscriber, Runnable {
+
+        private val payload = StringBuilder(128)
+
+        private var sensors: Array<out Sensor> = emptyArray()
+        protected var channels: Array<SensorHub.Channel> = emptyArray()
+        private var refreshRate = 0L
+        private var subscribed = false
+        private var tickScheduled = false
+        private var nextFrameAt = 0L
+
+        private var windowStart = 0L
+        private var windowFrames = 0
+
+        override var samplingPeriodUs = 0
+            private set
+
+        /**
+         * @return the refresh rate in ms that will be delivered, no faster than the slowest of
+         * [sensors] can sample
+         */
+        fun start(refreshRate: Long, vararg sensors: Sensor): Long {
+            val effectiveRate = maxOf(refreshRate, sensors.maxOf { (it.minDelay + 999) / 1000 }.toLong())
+            SensorHub.handler.post {
+                unsubscribe()
+                this.sensors = sensors
+                this.refreshRate = effectiveRate
+                samplingPeriodUs = (effectiveRate * 1000).toInt()
+                if (!paused) {
+                    subscribe()
+                }
             }
+            return effectiveRate
         }
-    }
 
-    private var accelerometerListenerPostponed: Runnable? = null
-    private val accelerometerListener: SensorEventListener = object : SensorEventListener {
-        private var xyz: FloatArray? = null
-        private var lastTime: Long = 0
-        override fun onSensorChanged(event: SensorEvent) {
-            if (accelerometerListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(accelerometerListenerPostponed)
-                accelerometerListenerPostponed = null
-            }
-            if (paused) return
-            val now = System.currentTimeMillis()
-            val diff = now - lastTime
-            xyz = event.values
-            if (diff < accelerometerDesiredRefreshRate) {
-                UiThreadUtil.runOnUiThread( this::post, accelerometerDesiredRefreshRate-diff)
-                return
+        fun stop() {
+            SensorHub.handler.post {
+                unsubscribe()
+                sensors = emptyArray()
             }
-            post()
         }
 
-        fun post() {
-            if (xyz == null) return
-            lastTime = System.currentTimeMillis()
-            try {
-                val eventData = JSONObject()
-                eventData.put("x", -xyz!![0].toDouble())
-                eventData.put("y", -xyz!![1].toDouble())
-                eventData.put("z", -xyz!![2].toDouble())
-                webAppProxy.notifyAccelerometerChanged(eventData)
-            } catch (e: Exception) {
+        fun pause() {
+            SensorHub.handler.post {
+                unsubscribe()
             }
         }
 
-        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+        fun resume() {
+            SensorHub.handler.post {
+                if (!paused && !subscribed && sensors.isNotEmpty()) {
+                    subscribe()
+                }
+            }
         }
-    }
-
-    private var gyroscopeListenerPostponed: Runnable? = null
-    private val gyroscopeListener: SensorEventListener = object : SensorEventListener {
-        private var lastTime: Long = 0
-        private val captured = FloatArray(3)
 
+        private fun subscribe() {
+            channels = Array(sensors.size) { SensorHub.subscribe(sensors[it], this) }
+            subscribed = true
+            nextFrameAt = 0
+            windowStart = SystemClock.uptimeMillis()
+            windowFrames = 0
+            onSubscribed()
+        }
 
-        override fun onSensorChanged(event: SensorEvent) {
-            if (gyroscopeListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(gyroscopeListenerPostponed)
-                gyroscopeListenerPostponed = null
-            }
-            if (paused) return
-            captured[0] += event.values[0]
-            captured[1] += event.values[1]
-            captured[2] += event.values[2]
-            val now = System.currentTimeMillis()
-            val diff = now - lastTime
-            if (diff < gyroscopeDesiredRefreshRate) {
-                UiThreadUtil.runOnUiThread(this::post, gyroscopeDesiredRefreshRate-diff)
+        private fun unsubscribe() {
+            if (!subscribed) {
                 return
             }
-            post()
+            channels.forEach { SensorHub.unsubscribe(it, this) }
+            channels = emptyArray()
+            SensorHub.handler.removeCallbacks(this)
+            subscribed = false
+            tickScheduled = false
         }
 
-        fun post() {
-            lastTime = System.currentTimeMillis()
-            val xyz = captured
-            try {
-                val eventData = JSONObject()
-                eventData.put("x", xyz[0].toDouble())
-                eventData.put("y", xyz[1].toDouble())
-                eventData.put("z", xyz[2].toDouble())
-                // web api:
-//                eventData.put("x", xyz[2]);
-//                eventData.put("y", xyz[0]);
-//                eventData.put("z", xyz[1]);
-                webAppProxy.notifyGyroscopeChanged(eventData)
-            } catch (e: Exception) {
+        override fun onSample() {
+            if (!subscribed) return
+            _samplesReceived.incrementAndGet()
+            if (!tickScheduled) {
+                tickScheduled = true
+                nextFrameAt = maxOf(nextFrameAt, SystemClock.uptimeMillis())
+                SensorHub.handler.postAtTime(this, nextFrameAt)
             }
-            captured[0] = 0f
-            captured[1] = 0f
-            captured[2] = 0f
         }
 
-        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+        // Frame tick, on a fixed timeline of one per refresh interval while samples keep coming
+        override fun run() {
+            tickScheduled = false
+            if (!subscribed) return
+            nextFrameAt += refreshRate
+            payload.setLength(0)
+            if (encode(payload)) {
+                webAppProxy.notifySensorFrame(eventType, payload.toString())
+                _framesDelivered.incrementAndGet()
+                countFrame()
+            }
         }
-    }
-
-    private var absoluteOrientationListenerPostponed: Runnable? = null
-    private val absoluteOrientationListener: SensorEventListener = object : SensorEventListener {
-        private var lastTime: Long = 0
-
-        private var gravity: FloatArray? = null
-        private var geomagnetic: FloatArray? = null
 
-        override fun onSensorChanged(event: SensorEvent) {
-            if (absoluteOrientationListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(absoluteOrientationListenerPostponed)
-                absoluteOrientationListenerPostponed = null
+        private fun countFrame() {
+            windowFrames++
+            val now = SystemClock.uptimeMillis()
+            if (now - windowStart >= RATE_WINDOW_MS) {
+                LogTimber.tag(TAG).d("$eventType delivered ${windowFrames * 1000 / (now - windowStart)} fps, requested every ${refreshRate}ms")
+                windowStart = now
+                windowFrames = 0
             }
-            if (paused) return
-            val now = System.currentTimeMillis()
-            val diff = now - lastTime
-            if (event.sensor.type == Sensor.TYPE_ACCELEROMETER) gravity = event.values
-            if (event.sensor.type == Sensor.TYPE_MAGNETIC_FIELD) geomagnetic = event.values
-            if (diff < absoluteOrientationDesiredRefreshRate) {
-                UiThreadUtil.runOnUiThread(this::post, absoluteOrientationDesiredRefreshRate-diff)
-                return
-            }
-            post()
         }
 
-        fun post() {
-            if (gravity == null || geomagnetic == null) return
-            lastTime = System.currentTimeMillis()
-            val R: FloatArray? = FloatArray(9)
-            val I: FloatArray? = FloatArray(9)
-            if (SensorManager.getRotationMatrix(R, I, gravity, geomagnetic)) {
-                val orientation: FloatArray? = FloatArray(3)
-                SensorManager.getOrientation(R, orientation)
-                try {
-                    val eventData = JSONObject()
-                    eventData.put("absolute", true)
-                    eventData.put("alpha", -orientation!![0].toDouble())
-                    eventData.put("beta", -orientation[1].toDouble())
-                    eventData.put("gamma", orientation[2].toDouble())
-                    webAppProxy.notifyDeviceOrientationChanged(eventData)
-                } catch (e: Exception) {
-                }
-            }
+        /**
+         * Frame time for values read from [channel], one sampling period back so there is a
+         * sample on both sides of it.
+         */
+        protected fun frameTimeNs(channel: SensorHub.Channel): Long {
+            return SystemClock.elapsedRealtimeNanos() - channel.samplingPeriodUs * 1000L
         }
 
-        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+        protected open fun onSubscribed() {
         }
+
+        /**
+         * Write the frame payload into [out].
+         * @return false when there is nothing to deliver yet
+         */
+        protected abstract fun encode(out: StringBuilder): Boolean
     }
 
-    private var relativeOrientationListenerPostponed: Runnable? = null
-    private val relativeOrientationListener: SensorEventListener = object : SensorEventListener {
-        private var lastTime: Long = 0
-        private var values: FloatArray? = null
-        override fun onSensorChanged(event: SensorEvent) {
-            if (relativeOrientationListenerPostponed != null) {
-                UiThreadUtil.cancelRunOnUIThread(relativeOrientationListenerPostponed)
-                relativeOrientationListenerPostponed = null
-            }
-            if (paused) return
-            val now = System.currentTimeMillis()
-            val diff = now - lastTime
-            if (diff < relativeOrientationDesiredRefreshRate) {
-                UiThreadUtil.runOnUiThread(this::post, relativeOrientationDesiredRefreshRate-diff)
-                return
-            }
-            if (event.sensor.getType() == Sensor.TYPE_GAME_ROTATION_VECTOR) {
-                values = event.values
-            }
-            post()
+    private inner class AccelerometerStream : SensorStream("accelerometer_changed") {
+        private val xyz = FloatArray(3)
+
+        override fun encode(out: StringBuilder): Boolean {
+            val channel = channels[0]
+            if (!channel.samples.sampleAt(frameTimeNs(channel), xyz)) return false
+            out.append("{\"x\":").appendFixed(-xyz[0])
+                .append(",\"y\":").appendFixed(-xyz[1])
+                .append(",\"z\":").appendFixed(-xyz[2])
+                .append('}')
+            return true
         }
+    }
 
-        private var mDeviceRotationMatrix: FloatArray? = null
-        private var mTruncatedRotationVector: FloatArray? = null
+    private inner class GyroscopeStream : SensorStream("gyroscope_changed") {
+        private val captured = FloatArray(3)
+        private var delivered = 0L
 
-        fun post() {
-            if (values == null) return
-            lastTime = System.currentTimeMillis()
-            if (mDeviceRotationMatrix == null) {
-                mDeviceRotationMatrix = FloatArray(9)
-            }
-            if (mTruncatedRotationVector == null) {
-                mTruncatedRotationVector = FloatArray(4)
-            }
-            if (values!!.size > 4) {
-                // On some Samsung devices sensorManager?.getRotationMatrixFromVector
-                // appears to throw an exception if rotation vector has length > 4.
-                // For the purposes of this class the first 4 values of the
-                // rotation vector are sufficient (see crbug.com/335298 for details).
-                System.arraycopy(values, 0, mTruncatedRotationVector, 0, 4)
-                SensorManager.getRotationMatrixFromVector(
-                    mDeviceRotationMatrix,
-                    mTruncatedRotationVector
-                )
-            } else {
-                SensorManager.getRotationMatrixFromVector(mDeviceRotationMatrix, values)
-            }
-            val orientation: FloatArray? = FloatArray(3)
-            SensorManager.getOrientation(mDeviceRotationMatrix, orientation)
-            try {
-                val eventData = JSONObject()
-                eventData.put("absolute", false)
-                eventData.put("alpha", -orientation!![0].toDouble())
-                eventData.put("beta", -orientation[1].toDouble())
-                eventData.put("gamma", orientation[2].toDouble())
-                webAppProxy.notifyDeviceOrientationChanged(eventData)
-            } catch (e: Exception) {
-            }
+        override fun onSubscribed() {
+            delivered = channels[0].samples.written
         }
 
-        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+        // Rotation rate averaged over the samples since the previous frame
+        override fun encode(out: StringBuilder): Boolean {
+            val samples = channels[0].samples
+            val count = samples.sumSince(delivered, captured)
+            if (count == 0) return false
+            delivered = samples.written
+            // web api: x = captured[2], y = captured[0], z = captured[1]
+            out.append("{\"x\":").appendFixed(captured[0] / count)
+                .append(",\"y\":").appendFixed(captured[1] / count)
+                .append(",\"z\":").appendFixed(captured[2] / count)
+                .append('}')
+            return true
+        }
+    }
+
+    private inner class AbsoluteOrientationStream : SensorStream("device_orientation_changed") {
+        private val gravity = FloatArray(3)
+        private val geomagnetic = FloatArray(3)
+        private val rotationMatrix = FloatArray(9)
+        private val inclinationMatrix = FloatArray(9)
+        private val orientation = FloatArray(3)
+
+        override fun encode(out: StringBuilder): Boolean {
+            val gravityChannel = channels[0]
+            val geomagneticChannel = channels[1]
+            if (!gravityChannel.samples.sampleAt(frameTimeNs(gravityChannel), gravity)) return false
+            if (!geomagneticChannel.samples.sampleAt(frameTimeNs(geomagneticChannel), geomagnetic)) return false
+            if (!SensorManager.getRotationMatrix(rotationMatrix, inclinationMatrix, gravity, geomagnetic)) return false
+            SensorManager.getOrientation(rotationMatrix, orientation)
+            out.append("{\"absolute\":true,\"alpha\":").appendFixed(-orientation[0])
+                .append(",\"beta\":").appendFixed(-orientation[1])
+                .append(",\"gamma\":").appendFixed(orientation[2])
+                .append('}')
+            return true
+        }
+    }
+
+    private inner class RelativeOrientationStream : SensorStream("device_orientation_changed") {
+        // On some Samsung devices getRotationMatrixFromVector throws if the rotation vector has
+        // more than 4 values, the first 4 are sufficient (see crbug.com/335298), the hub keeps 4
+        private val rotationVector = FloatArray(4)
+        private val rotationMatrix = FloatArray(9)
+        private val orientation = FloatArray(3)
+
+        override fun encode(out: StringBuilder): Boolean {
+            val channel = channels[0]
+            if (!channel.samples.sampleAt(frameTimeNs(channel), rotationVector)) return false
+            // Interpolated quaternions are a little short of unit length
+            val norm = sqrt(rotationVector.fold(0f) { sum, it -> sum + it * it })
+            if (norm > 0f) {
+                for (i in rotationVector.indices) {
+                    rotationVector[i] /= norm
+                }
+            }
+            SensorManager.getRotationMatrixFromVector(rotationMatrix, rotationVector)
+            SensorManager.getOrientation(rotationMatrix, orientation)
+            out.append("{\"absolute\":false,\"alpha\":").appendFixed(-orientation[0])
+                .append(",\"beta\":").appendFixed(-orientation[1])
+                .append(",\"gamma\":").appendFixed(orientation[2])
+                .append('}')
+            return true
         }
     }
-}
\ No newline at end of file
+}
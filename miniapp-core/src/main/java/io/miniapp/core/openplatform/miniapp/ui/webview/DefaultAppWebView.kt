@@ -1,7 +1,10 @@
 package io.miniapp.core.openplatform.miniapp.ui.webview
 
 import android.annotation.SuppressLint
+import android.content.ClipData
 import android.content.Context
+import android.content.Intent
+import android.os.SystemClock
 import android.view.MotionEvent
 import android.webkit.CookieManager
 import android.webkit.JavascriptInterface
@@ -10,23 +13,27 @@ import android.webkit.WebViewClient
 import androidx.lifecycle.LifecycleOwner
 import io.miniapp.core.openplatform.common.apis.data.AppSettings
 import io.miniapp.core.openplatform.miniapp.IMiniApp
+import io.miniapp.core.openplatform.miniapp.MiniAppServiceImpl
 import io.miniapp.core.openplatform.miniapp.events.WebViewScrollListener
 import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
 import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
 import io.miniapp.core.openplatform.miniapp.utils.WebViewResourceHelper
 import io.miniapp.core.openplatform.miniapp.webapp.IWebApp
 import io.miniapp.core.openplatform.miniapp.webapp.IWebAppEventHandler
+import io.miniapp.core.openplatform.miniapp.webapp.WebAppImpl
 import org.json.JSONArray
 import org.json.JSONObject
 
 
 @SuppressLint("ViewConstructor", "ClickableViewAccessibility")
-internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEventHandler {
+internal class DefaultAppWebView(context: Context, isPooled: Boolean = false) : WebView(context), IWebAppEventHandler,
+    WebMessageBridge.Handler {
     companion object {
         var _webAppId = 0
     }
 
-    var webAppId = ++_webAppId
+    // Pooled instances get their id on checkout so they never steal the top level from a visible app
+    var webAppId = if (isPooled) 0 else ++_webAppId
     var isPageLoaded: Boolean = false
     var cacheData: String? = null
     var miniApp: IMiniApp? = null
@@ -43,13 +50,18 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
     var showFullscreen: Boolean? = null
     var appSettings: AppSettings? = null
     
-    // Expiration time property, used to control the expiration state of mini apps
-    var expirationTime: Long? = null
+    // Creation or pool checkout, last launch url load and dismissal, in SystemClock.elapsedRealtime
+    var createdAt = SystemClock.elapsedRealtime()
+        private set
+    var loadedAt = createdAt
+        private set
+    var hiddenAt = 0L
+        private set
 
     var orientationLocked: Boolean? = null
 
     val isExpired: Boolean
-        get() = expirationTime?.let { System.currentTimeMillis() > it } ?: false
+        get() = WebViewExpiry.expiryReason(this) != null
 
     var metadata: JSONObject? = null
 
@@ -93,6 +105,9 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
 
     var injectedJS: Boolean = false
 
+    // Set for pooled instances, the warm-up about:blank entry is dropped once the first real page finishes
+    var clearHistoryOnLoad: Boolean = isPooled
+
     private var prevScrollX = 0
     private var prevScrollY = 0
     private var lastClickMs: Long = 0
@@ -103,10 +118,27 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
 
     var webEventHandler: IWebAppEventHandler? = null
 
+    // Optional WebMessage channel, installed once and kept across navigations
+    var messageBridge: WebMessageBridge? = null
+
     init {
         WebViewResourceHelper.addChromeResourceIfNeeded(context)
-        // Set expiration time to 1 hour from now
-        expirationTime = System.currentTimeMillis() + (60 * 60 * 1000)
+    }
+
+    /**
+     * Restart the page TTL, called when a launch url is loaded.
+     */
+    fun resetExpirationTime() {
+        loadedAt = SystemClock.elapsedRealtime()
+    }
+
+    /**
+     * Restart every expiry clock, called when a pooled instance is checked out.
+     */
+    fun resetAge() {
+        createdAt = SystemClock.elapsedRealtime()
+        loadedAt = createdAt
+        hiddenAt = 0L
     }
 
     @JavascriptInterface
@@ -137,7 +169,93 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
 
     @JavascriptInterface
     fun resolveShare(json: String?, file: ByteArray?, fileName: String?, fileMimeType: String?) {
-        // TODO
+        val reason = try {
+            share(json, file, fileName, fileMimeType)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            "error"
+        }
+        UiThreadUtil.runOnUiThread {
+            evaluateJavascript(
+                "window.navigator.__share__receive && window.navigator.__share__receive(${reason?.let { JSONObject.quote(it) }})",
+                null
+            )
+        }
+    }
+
+    override fun onMessage(type: String, event: String, data: String?): Any? {
+        when (type) {
+            "post", "postEvent" -> UiThreadUtil.runOnUiThread {
+                try {
+                    handleWebScrollMessage(event, JSONArray(data ?: ""))
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+            }
+            "webApp" -> (webApp as? WebAppImpl)?.receiveWebEvent(event, data)
+            "resolveShare" -> share(data, null, null, null)?.also { throw IllegalStateException(it) }
+        }
+        return null
+    }
+
+    override fun onBinaryMessage(type: String, header: JSONObject, payload: ByteArray): Any? {
+        if (type == "resolveShare") {
+            share(
+                header.optString("json"),
+                payload,
+                header.optString("fileName").ifEmpty { null },
+                header.optString("fileMimeType").ifEmpty { null }
+            )?.also { throw IllegalStateException(it) }
+        }
+        return null
+    }
+
+    /**
+     * Share what the page passed to navigator.share(), off the main thread. A link or text goes
+     * to the host app's delegate as with the share url scheme; a file is written to the cache
+     * and offered in the system chooser with the text attached. Returns the rejection reason
+     * webview_share.js understands, null once the share is shown.
+     */
+    private fun share(json: String?, file: ByteArray?, fileName: String?, fileMimeType: String?): String? {
+        val data = JSONObject(json?.ifEmpty { null } ?: "{}")
+        val url = data.optString("url").ifEmpty { null }
+        val text = listOf(data.optString("title"), data.optString("text"))
+            .filter { it.isNotEmpty() }
+            .joinToString("\n")
+            .ifEmpty { null }
+        val app = miniApp ?: return "security"
+
+        if (file == null) {
+            if (url == null && text == null) {
+                return "data"
+            }
+            val delegate = MiniAppServiceImpl.getInstance().appDelegate ?: return "security"
+            UiThreadUtil.runOnUiThread { delegate.shareLink(app = app, link = url, text = text) }
+            return null
+        }
+
+        val uri = ShareFileProvider.store(context, file, fileName)
+        val intent = Intent(Intent.ACTION_SEND)
+            .setType(fileMimeType?.ifEmpty { null } ?: "application/octet-stream")
+            .putExtra(Intent.EXTRA_STREAM, uri)
+            .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        intent.clipData = ClipData.newRawUri(null, uri)
+        listOfNotNull(text, url).joinToString("\n").ifEmpty { null }?.also {
+            intent.putExtra(Intent.EXTRA_TEXT, it)
+        }
+        val activity = AndroidUtils.findActivity(context)
+        val chooser = Intent.createChooser(intent, null)
+        if (activity == null) {
+            chooser.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+        }
+        UiThreadUtil.runOnUiThread {
+            try {
+                (activity ?: context).startActivity(chooser)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+        return null
     }
 
     fun dismiss(complete :() -> Unit) {
@@ -155,6 +273,7 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
     fun setDismissFlag(){
         webEventHandler = null
         _isParentDismiss = true
+        hiddenAt = SystemClock.elapsedRealtime()
         owner = null
         miniApp = null
     }
@@ -171,6 +290,7 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
 
     fun setDismissHandler(handle: ((() -> Unit) -> Unit)?) {
         _isParentDismiss = false
+        hiddenAt = 0L
         dismissHandler = handle
     }
 
@@ -256,6 +376,7 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
         webViewClient = WebViewClient()
         webApp?.destroy()
         webApp = null
+        ScriptRegistry.release(this)
         stopLoading()
         onPause()
         clearHistory()
@@ -265,6 +386,18 @@ internal class DefaultAppWebView(context: Context) : WebView(context), IWebAppEv
         destroy()
     }
 
+    /**
+     * Release a WebView whose renderer is gone, it must not load anything anymore.
+     */
+    fun releaseAfterRendererGone() {
+        webChromeClient = null
+        webViewClient = WebViewClient()
+        webApp?.destroy()
+        webApp = null
+        removeAllViews()
+        destroy()
+    }
+
     fun goToHomePage() {
         val backList = copyBackForwardList()
         if (backList.currentIndex > 0) {
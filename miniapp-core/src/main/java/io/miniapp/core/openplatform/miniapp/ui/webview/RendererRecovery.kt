@@ -0,0 +1,108 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.os.SystemClock
+import io.miniapp.core.openplatform.common.apis.data.AppSettings
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Bookkeeping for WebViews whose renderer process is gone.
+ *
+ * An app is recovered in place, from a [WebViewSnapshot] of its last launch url and UI state,
+ * at most [MAX_RECOVERIES] times within [RECOVERY_WINDOW_MS]. Past that the renderer is
+ * likely to die again and the caller falls back to closing the app.
+ */
+internal object RendererRecovery {
+
+    private const val TAG = "RendererRecovery"
+    private const val MAX_RECOVERIES = 3
+    private const val RECOVERY_WINDOW_MS = 10 * 60 * 1000L
+
+    private class CrashRecord {
+        var total = 0
+        var windowStart = 0L
+        var inWindow = 0
+    }
+
+    private val crashes = ConcurrentHashMap<String, CrashRecord>()
+
+    /**
+     * Count a renderer loss of [appKey].
+     * @return true when the app may be recovered in place
+     */
+    fun recordCrash(appKey: String): Boolean {
+        val record = crashes.getOrPut(appKey) { CrashRecord() }
+        val allowed = synchronized(record) {
+            val now = SystemClock.elapsedRealtime()
+            record.total++
+            if (now - record.windowStart > RECOVERY_WINDOW_MS) {
+                record.windowStart = now
+                record.inWindow = 0
+            }
+            record.inWindow++
+            record.inWindow <= MAX_RECOVERIES
+        }
+        LogTimber.tag(TAG).d("renderer gone app=$appKey crashes=${record.total} recover=$allowed")
+        return allowed
+    }
+
+    /**
+     * Renderer losses per app since start, for metrics.
+     */
+    fun crashesByApp(): Map<String, Int> {
+        return crashes.mapValues { (_, record) -> synchronized(record) { record.total } }
+    }
+}
+
+/**
+ * What a replacement WebView needs to look like the one it replaces.
+ */
+internal class WebViewSnapshot(
+    val url: String,
+    val scrollX: Int,
+    val scrollY: Int,
+    private val headColor: Int?,
+    private val bgColor: Int?,
+    private val isBackButtonVisible: Boolean?,
+    private val isCloseConfirm: Boolean?,
+    private val isExpanded: Boolean?,
+    private val allowVerticalSwipe: Boolean?,
+    private val isSettingVisible: Boolean?,
+    private val showFullscreen: Boolean?,
+    private val orientationLocked: Boolean?,
+    private val appSettings: AppSettings?
+) {
+
+    companion object {
+        fun capture(webView: DefaultAppWebView, url: String): WebViewSnapshot {
+            return WebViewSnapshot(
+                url = url,
+                scrollX = webView.scrollX,
+                scrollY = webView.scrollY,
+                headColor = webView.headColor,
+                bgColor = webView.bgColor,
+                isBackButtonVisible = webView.isBackButtonVisible,
+                isCloseConfirm = webView.isCloseConfirm,
+                isExpanded = webView.isExpanded,
+                allowVerticalSwipe = webView.allowVerticalSwipe,
+                isSettingVisible = webView.isSettingVisible,
+                showFullscreen = webView.showFullscreen,
+                orientationLocked = webView.orientationLocked,
+                appSettings = webView.appSettings
+            )
+        }
+    }
+
+    fun restoreTo(webView: DefaultAppWebView) {
+        webView.headColor = headColor
+        webView.bgColor = bgColor
+        webView.isBackButtonVisible = isBackButtonVisible
+        webView.isCloseConfirm = isCloseConfirm
+        webView.isExpanded = isExpanded
+        webView.allowVerticalSwipe = allowVerticalSwipe
+        webView.isSettingVisible = isSettingVisible
+        webView.showFullscreen = showFullscreen
+        webView.orientationLocked = orientationLocked
+        webView.appSettings = appSettings
+    }
+}
@@ -0,0 +1,139 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.os.SystemClock
+import android.webkit.WebView
+import androidx.webkit.ScriptHandler
+import androidx.webkit.WebViewCompat
+import androidx.webkit.WebViewFeature
+import io.miniapp.core.R
+import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.Utilities
+import java.util.EnumMap
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bridge scripts injected into every page, read and templated once per process.
+ *
+ * The first injection into a WebView evaluates the cached source and, where the WebView
+ * supports it, also registers it as a document start script, so later navigations run it
+ * inside the renderer without the source crossing the bridge again. Document start scripts
+ * wait for DOMContentLoaded, the scripts expect a parsed document as with the evaluated path,
+ * and only run in the top frame, never in the app's iframes.
+ * [inject] is called on the main thread.
+ */
+internal object ScriptRegistry {
+
+    private const val TAG = "ScriptRegistry"
+    private const val WARM_UP_KEY = "script_warm_up"
+
+    enum class Script(val rawRes: Int, val templated: Boolean) {
+        // Shared by the scripts below, injected first
+        BRIDGE(R.raw.webview_bridge, false),
+        APP_EXT(R.raw.webview_app_ext, true),
+        EXT(R.raw.webview_ext, true),
+        SHARE(R.raw.webview_share, false),
+        SELECT(R.raw.webview_select, false),
+        DATETIME(R.raw.webview_datetime, false)
+    }
+
+    private val sources = ConcurrentHashMap<Script, String>()
+    private val installed = WeakHashMap<WebView, EnumMap<Script, ScriptHandler>>()
+
+    private val _evaluated = AtomicLong()
+    private val _documentStartHits = AtomicLong()
+    private val _injectTimeNanos = AtomicLong()
+
+    // Scripts pushed through evaluateJavascript
+    val evaluated: Long
+        get() = _evaluated.get()
+
+    // Injections skipped because the script already ran at document start
+    val documentStartHits: Long
+        get() = _documentStartHits.get()
+
+    val injectTimeNanos: Long
+        get() = _injectTimeNanos.get()
+
+    fun isDocumentStartSupported(): Boolean {
+        return WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)
+    }
+
+    fun source(script: Script): String? {
+        sources[script]?.also {
+            return it
+        }
+        val raw = AndroidUtils.readRes(script.rawRes) ?: return null
+        val source = if (script.templated) raw.replace("\$DEBUG$", "false") else raw
+        return sources.putIfAbsent(script, source) ?: source
+    }
+
+    /**
+     * Read and template every script in the background once the main thread is idle, so the
+     * first injection does not touch resources.
+     */
+    fun warmUp() {
+        Utilities.backgroundQueue.postIdle(Runnable {
+            Script.values().forEach { source(it) }
+            LogTimber.tag(TAG).d("warmed ${sources.size} scripts")
+        }, key = WARM_UP_KEY)
+    }
+
+    fun inject(webView: WebView, vararg scripts: Script) {
+        val start = SystemClock.elapsedRealtimeNanos()
+        val handlers = installed.getOrPut(webView) { EnumMap(Script::class.java) }
+        var evaluatedCount = 0
+        scripts.forEach { script ->
+            if (handlers.containsKey(script)) {
+                _documentStartHits.incrementAndGet()
+                return@forEach
+            }
+            val source = source(script) ?: return@forEach
+            try {
+                webView.evaluateJavascript(source, null)
+                evaluatedCount++
+            } catch (e: Exception) {
+                e.printStackTrace()
+                return@forEach
+            }
+            addDocumentStartScript(webView, source)?.also {
+                handlers[script] = it
+            }
+        }
+        _evaluated.addAndGet(evaluatedCount.toLong())
+
+        val elapsed = SystemClock.elapsedRealtimeNanos() - start
+        _injectTimeNanos.addAndGet(elapsed)
+        LogTimber.tag(TAG).d("inject ${scripts.joinToString()} evaluated=$evaluatedCount in ${elapsed / 1000}us")
+    }
+
+    /**
+     * Drop the document start scripts of [webView], e.g. before it is destroyed.
+     */
+    fun release(webView: WebView) {
+        installed.remove(webView)?.values?.forEach {
+            try {
+                it.remove()
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    private fun addDocumentStartScript(webView: WebView, source: String): ScriptHandler? {
+        if (!isDocumentStartSupported()) {
+            return null
+        }
+        // Matches every origin, so iframes opt out themselves like with the evaluated path
+        val script = "(function(){if(window.top!==window){return;}var run=function(){\n$source\n};" +
+                "if(document.readyState==='loading'){document.addEventListener('DOMContentLoaded',run,{once:true});}else{run();}})();"
+        return try {
+            WebViewCompat.addDocumentStartJavaScript(webView, script, setOf("*"))
+        } catch (e: Exception) {
+            LogTimber.tag(TAG).e(e, "addDocumentStartJavaScript failed")
+            null
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.content.Context
+import android.net.Uri
+import androidx.core.content.FileProvider
+import java.io.File
+
+/**
+ * Serves the files pages share through navigator.share() to the app picked in the chooser.
+ *
+ * A subclass so the manifest entry does not clash with a FileProvider of the host app. Only
+ * the file of the last share is kept.
+ */
+internal class ShareFileProvider : FileProvider() {
+
+    companion object {
+        private const val DIR = "miniapp_share"
+
+        private fun authority(context: Context) = "${context.packageName}.miniapp.share"
+
+        /**
+         * Write [bytes] under the share directory and return its content uri.
+         */
+        fun store(context: Context, bytes: ByteArray, fileName: String?): Uri {
+            val dir = File(context.cacheDir, DIR)
+            dir.listFiles()?.forEach { it.delete() }
+            dir.mkdirs()
+            // Drop any path the page put in the name
+            val name = fileName?.let { File(it).name }?.ifEmpty { null } ?: "file"
+            val file = File(dir, name)
+            file.writeBytes(bytes)
+            return getUriForFile(context, authority(context), file)
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.net.Uri
+import android.webkit.WebView
+import androidx.webkit.JavaScriptReplyProxy
+import androidx.webkit.WebMessageCompat
+import androidx.webkit.WebViewCompat
+import androidx.webkit.WebViewFeature
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
+import io.miniapp.core.openplatform.miniapp.utils.Utilities
+import org.json.JSONObject
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Web to native channel built on a WebMessage listener, installed once per WebView and kept
+ * across navigations as `window.MiniAppBridgePort`.
+ *
+ * String messages are `{"id":1,"type":"post","event":"...","data":...}`. Binary messages are
+ * an ArrayBuffer holding a 4 byte big endian header length, the utf8 JSON header in the same
+ * form, then the raw payload, so large data such as shared files skips JSON arrays entirely.
+ * Messages carrying an id get a `{"id":1,"result":...}` reply holding what the handler returned,
+ * or `{"id":1,"error":"..."}` when it threw. `window.__miniapp_bridge` in webview_bridge.js
+ * keeps the page side of that correlation.
+ *
+ * Only the origin check runs on the main thread, messages are parsed and handed to the
+ * [Handler] on [Utilities.webEventQueue] in arrival order.
+ *
+ * The listener has to accept every origin because the WebView moves between apps, so each
+ * message is checked instead: only the main frame of the page currently loaded is heard,
+ * messages from iframes or from another origin are dropped without a reply. Binary messages
+ * are capped at [MAX_BINARY_BYTES].
+ *
+ * The `@JavascriptInterface` methods stay registered and remain the fallback for pages and
+ * WebView versions without this channel.
+ */
+internal class WebMessageBridge private constructor(
+    private val handler: Handler
+) : WebViewCompat.WebMessageListener {
+
+    /**
+     * Called on [Utilities.webEventQueue]. The returned value, a JSON compatible value or null,
+     * is the `result` of the reply, a thrown exception its `error`.
+     */
+    interface Handler {
+        fun onMessage(type: String, event: String, data: String?): Any?
+        fun onBinaryMessage(type: String, header: JSONObject, payload: ByteArray): Any?
+    }
+
+    companion object {
+        private const val TAG = "WebMessageBridge"
+        const val JS_OBJECT_NAME = "MiniAppBridgePort"
+
+        // Share files are capped at 3MB by the page, room left for the header
+        const val MAX_BINARY_BYTES = 3 * 1024 * 1024 + 64 * 1024
+
+        private val _messagesReceived = AtomicLong()
+        private val _bytesReceived = AtomicLong()
+        private val _messagesRejected = AtomicLong()
+
+        val messagesReceived: Long
+            get() = _messagesReceived.get()
+
+        val bytesReceived: Long
+            get() = _bytesReceived.get()
+
+        /**
+         * Messages dropped because they came from a frame or an origin other than the page.
+         */
+        val messagesRejected: Long
+            get() = _messagesRejected.get()
+
+        fun isSupported(): Boolean {
+            return WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_LISTENER) &&
+                    WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER)
+        }
+
+        /**
+         * Install the channel on [webView], null when the WebView does not support it.
+         */
+        fun install(webView: WebView, handler: Handler): WebMessageBridge? {
+            if (!isSupported()) {
+                return null
+            }
+            return try {
+                WebMessageBridge(handler).also {
+                    WebViewCompat.addWebMessageListener(webView, JS_OBJECT_NAME, setOf("*"), it)
+                }
+            } catch (e: Exception) {
+                LogTimber.tag(TAG).e(e, "install failed")
+                null
+            }
+        }
+
+        /**
+         * Split a binary message into its JSON header and its payload.
+         */
+        fun decodeFrame(buffer: ByteArray): Pair<JSONObject, ByteArray> {
+            if (buffer.size > MAX_BINARY_BYTES) {
+                throw IllegalArgumentException("message too large ${buffer.size}")
+            }
+            val frame = ByteBuffer.wrap(buffer)
+            val headerLength = frame.int
+            if (headerLength < 0 || headerLength > frame.remaining()) {
+                throw IllegalArgumentException("invalid header length $headerLength")
+            }
+            val header = JSONObject(String(buffer, 4, headerLength, Charsets.UTF_8))
+            return header to buffer.copyOfRange(4 + headerLength, buffer.size)
+        }
+
+        private fun isFromPage(view: WebView, sourceOrigin: Uri, isMainFrame: Boolean): Boolean {
+            if (!isMainFrame) {
+                return false
+            }
+            val page = view.url?.let { Uri.parse(it) } ?: return false
+            return page.scheme.equals(sourceOrigin.scheme, ignoreCase = true) &&
+                    page.host.equals(sourceOrigin.host, ignoreCase = true) &&
+                    effectivePort(page) == effectivePort(sourceOrigin)
+        }
+
+        private fun effectivePort(uri: Uri): Int {
+            return when {
+                uri.port >= 0 -> uri.port
+                "https".equals(uri.scheme, ignoreCase = true) -> 443
+                "http".equals(uri.scheme, ignoreCase = true) -> 80
+                else -> -1
+            }
+        }
+    }
+
+    override fun onPostMessage(
+        view: WebView,
+        message: WebMessageCompat,
+        sourceOrigin: Uri,
+        isMainFrame: Boolean,
+        replyProxy: JavaScriptReplyProxy
+    ) {
+        if (!isFromPage(view, sourceOrigin, isMainFrame)) {
+            _messagesRejected.incrementAndGet()
+            LogTimber.tag(TAG).w { "dropped message from $sourceOrigin, main frame: $isMainFrame" }
+            return
+        }
+        _messagesReceived.incrementAndGet()
+        if (message.type == WebMessageCompat.TYPE_ARRAY_BUFFER) {
+            val buffer = message.arrayBuffer
+            _bytesReceived.addAndGet(buffer.size.toLong())
+            Utilities.webEventQueue.postRunnable { dispatchBinary(buffer, replyProxy) }
+        } else {
+            val text = message.data ?: return
+            _bytesReceived.addAndGet(text.length.toLong())
+            Utilities.webEventQueue.postRunnable { dispatchText(text, replyProxy) }
+        }
+    }
+
+    private fun dispatchBinary(buffer: ByteArray, replyProxy: JavaScriptReplyProxy) {
+        var id: Long? = null
+        try {
+            val (header, payload) = decodeFrame(buffer)
+            id = header.optLong("id", -1).takeIf { it >= 0 }
+            val result = handler.onBinaryMessage(header.getString("type"), header, payload)
+            id?.also { reply(replyProxy, JSONObject().put("id", it).put("result", result ?: JSONObject.NULL)) }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            id?.also { reply(replyProxy, JSONObject().put("id", it).put("error", e.message ?: "error")) }
+        }
+    }
+
+    private fun dispatchText(text: String, replyProxy: JavaScriptReplyProxy) {
+        var id: Long? = null
+        try {
+            val json = JSONObject(text)
+            id = json.optLong("id", -1).takeIf { it >= 0 }
+            val data = if (json.isNull("data")) null else json.get("data").toString()
+            val result = handler.onMessage(json.getString("type"), json.optString("event"), data)
+            id?.also { reply(replyProxy, JSONObject().put("id", it).put("result", result ?: JSONObject.NULL)) }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            id?.also { reply(replyProxy, JSONObject().put("id", it).put("error", e.message ?: "error")) }
+        }
+    }
+
+    // The reply proxy belongs to the main thread
+    private fun reply(replyProxy: JavaScriptReplyProxy, message: JSONObject) {
+        UiThreadUtil.runOnUiThread {
+            try {
+                replyProxy.postMessage(message.toString())
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.content.Context
+import android.net.Uri
+import android.webkit.CookieManager
+import android.webkit.MimeTypeMap
+import android.webkit.WebResourceRequest
+import android.webkit.WebResourceResponse
+import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
+import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.MiniAppExecutors
+import io.miniapp.core.openplatform.miniapp.utils.Utilities
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import okhttp3.CacheControl
+import okhttp3.Headers
+import okhttp3.Request
+import okhttp3.Response
+import java.io.File
+import java.io.FileInputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * On-disk store of mini-app static resources, one package per mini-app id and version.
+ *
+ * A miss is fetched once, by the cache instead of the WebView, and written to disk while the
+ * page reads it; the next launch of the same version is then served from disk through
+ * [intercept]. When a new version shows up, resources of the previous version are
+ * revalidated with conditional requests so only changed files are transferred again. Within
+ * a version, an entry past its freshness lifetime (max-age, Expires, or a tenth of its age
+ * since Last-Modified) is served once more and revalidated in the background the same way.
+ *
+ * The cache fetches without cookies and only keeps responses that are the same for every user:
+ * nothing marked private, no-cache or no-store, varying on cookies or setting one. Resources the
+ * user has cookies for are left to the WebView.
+ */
+internal object WebResourceCache {
+
+    private const val TAG = "WebResourceCache"
+    private const val DIR_NAME = "miniapp_resources"
+    private const val INDEX_FILE = "index"
+    private const val TRASH_PREFIX = ".trash_"
+    private const val DEFAULT_MAX_BYTES = 50L * 1024 * 1024
+    private const val TRIM_KEY = "resource_cache_trim"
+    private const val HEADER_SEPARATOR = '\u001e'
+
+    // Cap of the freshness guessed from Last-Modified when the server gives no lifetime
+    private val MAX_HEURISTIC_FRESHNESS_MS = TimeUnit.DAYS.toMillis(1)
+
+    private val CACHEABLE_EXTENSIONS = setOf(
+        "html", "htm", "js", "mjs", "css", "json", "png", "jpg", "jpeg", "gif", "webp", "svg", "ico",
+        "woff", "woff2", "ttf", "otf"
+    )
+
+    // Page request headers that do not identify the user
+    private val FORWARDED_REQUEST_HEADERS = listOf("Accept", "Accept-Language", "User-Agent")
+
+    // Response headers stored with an entry and replayed on hits, lower case
+    private val STORED_RESPONSE_HEADERS = setOf(
+        "cache-control", "content-language", "content-security-policy",
+        "content-security-policy-report-only", "access-control-allow-origin", "timing-allow-origin",
+        "cross-origin-resource-policy", "cross-origin-opener-policy", "cross-origin-embedder-policy",
+        "referrer-policy", "permissions-policy", "x-content-type-options", "etag", "last-modified"
+    )
+
+    private class Entry(
+        val url: String,
+        val fileName: String,
+        val mimeType: String,
+        val encoding: String?,
+        val etag: String?,
+        val lastModified: String?,
+        val size: Long,
+        val headers: String,
+        // Served without revalidation until then
+        val expiresAt: Long
+    ) {
+        fun toLine() = listOf(url, fileName, mimeType, encoding ?: "", etag ?: "", lastModified ?: "", size.toString(), headers, expiresAt.toString())
+            .joinToString("\t")
+
+        fun responseHeaders() = decodeHeaders(headers)
+
+        fun withExpiry(expiresAt: Long) = Entry(url, fileName, mimeType, encoding, etag, lastModified, size, headers, expiresAt)
+
+        companion object {
+            fun fromLine(line: String): Entry? {
+                val fields = line.split("\t")
+                // Older entries have no headers or expiry, they are revalidated on their next hit
+                if (fields.size !in 7..9) {
+                    return null
+                }
+                return Entry(
+                    url = fields[0],
+                    fileName = fields[1],
+                    mimeType = fields[2],
+                    encoding = fields[3].ifEmpty { null },
+                    etag = fields[4].ifEmpty { null },
+                    lastModified = fields[5].ifEmpty { null },
+                    size = fields[6].toLongOrNull() ?: 0,
+                    headers = fields.getOrElse(7) { "" },
+                    expiresAt = fields.getOrNull(8)?.toLongOrNull() ?: 0
+                )
+            }
+        }
+    }
+
+    private class Package(val appId: String, val version: String, val dir: File) {
+        val entries = LinkedHashMap<String, Entry>()
+        var lastAccess = dir.lastModified()
+
+        val totalBytes: Long
+            get() = entries.values.sumOf { it.size }
+
+        fun load() {
+            val index = File(dir, INDEX_FILE)
+            if (!index.exists()) {
+                return
+            }
+            index.forEachLine { line ->
+                Entry.fromLine(line)?.takeIf { File(dir, it.fileName).exists() }?.also {
+                    entries[it.url] = it
+                }
+            }
+        }
+
+        fun save() {
+            val tmp = File(dir, "$INDEX_FILE.tmp")
+            tmp.writeText(entries.values.joinToString("\n") { it.toLine() })
+            tmp.renameTo(File(dir, INDEX_FILE))
+        }
+    }
+
+    /**
+     * Passes a response body through to the page while writing it to [file]. The entry is
+     * committed once the body has been read to the end, a body closed early is discarded.
+     */
+    private class StoringStream(
+        input: InputStream,
+        private val file: File,
+        private val onDone: (stored: Boolean) -> Unit
+    ) : FilterInputStream(input) {
+
+        private var output = try {
+            file.outputStream()
+        } catch (e: IOException) {
+            null
+        }
+        private var done = false
+
+        override fun read(): Int {
+            val value = super.read()
+            if (value < 0) {
+                finish(true)
+            } else {
+                write { it.write(value) }
+            }
+            return value
+        }
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            val count = super.read(buffer, offset, length)
+            if (count < 0) {
+                finish(true)
+            } else {
+                write { it.write(buffer, offset, count) }
+            }
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            // Skipped bytes never reach the file
+            discard()
+            return super.skip(n)
+        }
+
+        override fun close() {
+            try {
+                super.close()
+            } finally {
+                finish(false)
+            }
+        }
+
+        // A failing disk must not fail the page
+        private inline fun write(block: (OutputStream) -> Unit) {
+            val out = output ?: return
+            try {
+                block(out)
+            } catch (e: IOException) {
+                discard()
+            }
+        }
+
+        private fun discard() {
+            try {
+                output?.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            output = null
+        }
+
+        private fun finish(complete: Boolean) {
+            if (done) {
+                return
+            }
+            done = true
+            val stored = complete && output != null
+            discard()
+            onDone(stored)
+        }
+    }
+
+    private val lock = Any()
+    private val packages = HashMap<String, Package>()
+    private val pendingDownloads = HashSet<String>()
+    private val scope = MiniAppExecutors.newScope(MiniAppExecutors.cache)
+
+    // Redirects cannot be answered from shouldInterceptRequest, the client leaves them to the WebView
+    private val client
+        get() = OkHttpClientProvider.resourceClient
+
+    private var rootDir: File? = null
+    private var maxBytes = DEFAULT_MAX_BYTES
+
+    fun init(context: Context, maxBytes: Long): Job? {
+        this.maxBytes = maxBytes
+        if (maxBytes <= 0) {
+            return null
+        }
+        return scope.launch {
+            val root = File(context.cacheDir, DIR_NAME).apply { mkdirs() }
+            val dirs = root.listFiles()?.filter { it.isDirectory }.orEmpty()
+            // Leftovers of an eviction cut short
+            dirs.filter { it.name.startsWith(TRASH_PREFIX) }.forEach { it.deleteRecursively() }
+            val loaded = dirs.filterNot { it.name.startsWith(TRASH_PREFIX) }.map { dir ->
+                val appId = dir.name.substringBeforeLast('@')
+                val version = dir.name.substringAfterLast('@')
+                Package(appId, version, dir).apply { load() }
+            }
+            val evicted = synchronized(lock) {
+                rootDir = root
+                loaded.forEach { packages[packageKey(it.appId, it.version)] = it }
+                trimToBudget(null)
+            }
+            evicted.forEach { it.deleteRecursively() }
+        }
+    }
+
+    /**
+     * Serve [request] from the package of [miniApp] if it is cached, otherwise fetch it for the
+     * WebView and store it on the way.
+     */
+    fun intercept(miniApp: MiniAppDto?, request: WebResourceRequest?): WebResourceResponse? {
+        miniApp ?: return null
+        request ?: return null
+        if (maxBytes <= 0 || request.method != "GET" || !isCacheable(request.url)) {
+            return null
+        }
+
+        val url = request.url.buildUpon().fragment(null).build().toString()
+        val version = (miniApp.updateAt ?: 0L).toString()
+
+        val cached = synchronized(lock) {
+            val pkg = getOrCreatePackage(miniApp.id, version) ?: return null
+            pkg.lastAccess = System.currentTimeMillis()
+            pkg.entries[url]?.let { entry -> entry to File(pkg.dir, entry.fileName) }
+        }
+
+        cached?.let { (entry, file) ->
+            try {
+                val response = WebResourceResponse(entry.mimeType, entry.encoding, 200, "OK", entry.responseHeaders(), FileInputStream(file))
+                if (System.currentTimeMillis() >= entry.expiresAt) {
+                    revalidate(miniApp.id, version, url, request.requestHeaders)
+                }
+                return response
+            } catch (e: Exception) {
+                LogTimber.tag(TAG).w(e, "cached file missing: $url")
+                synchronized(lock) {
+                    packages[packageKey(miniApp.id, version)]?.entries?.remove(url)
+                }
+            }
+        }
+
+        if (hasCookies(url) || !markPending(url)) {
+            return null
+        }
+        return try {
+            fetch(miniApp.id, version, url, request.requestHeaders, previousVersion(miniApp.id, version, url))
+        } catch (e: Exception) {
+            LogTimber.tag(TAG).d("fetch failed $url: ${e.message}")
+            synchronized(lock) {
+                pendingDownloads.remove(url)
+            }
+            null
+        }
+    }
+
+    /**
+     * Download [url] into the package of [miniApp] ahead of its first request, e.g. the entry page.
+     */
+    fun prefetch(miniApp: MiniAppDto, url: String) {
+        val uri = Uri.parse(url)
+        if (maxBytes <= 0 || !isCacheable(uri)) {
+            return
+        }
+        val key = uri.buildUpon().fragment(null).build().toString()
+        val version = (miniApp.updateAt ?: 0L).toString()
+        val cached = synchronized(lock) {
+            getOrCreatePackage(miniApp.id, version)?.entries?.containsKey(key) ?: true
+        }
+        if (cached || hasCookies(key) || !markPending(key)) {
+            return
+        }
+        scope.launch {
+            try {
+                fetch(miniApp.id, version, key, null, previousVersion(miniApp.id, version, key))?.data?.use { drain(it) }
+            } catch (e: Exception) {
+                LogTimber.tag(TAG).d("download failed $key: ${e.message}")
+                synchronized(lock) {
+                    pendingDownloads.remove(key)
+                }
+            }
+        }
+    }
+
+    /**
+     * Refresh the stale entry of [url] in the background, the current request was already served from it.
+     */
+    private fun revalidate(appId: String, version: String, url: String, headers: Map<String, String>?) {
+        if (hasCookies(url) || !markPending(url)) {
+            return
+        }
+        scope.launch {
+            try {
+                val base = synchronized(lock) {
+                    packages[packageKey(appId, version)]?.let { pkg -> pkg.entries[url]?.let { pkg to it } }
+                }
+                fetch(appId, version, url, headers, base)?.data?.use { drain(it) }
+            } catch (e: Exception) {
+                LogTimber.tag(TAG).d("revalidation failed $url: ${e.message}")
+                synchronized(lock) {
+                    pendingDownloads.remove(url)
+                }
+            }
+        }
+    }
+
+    // Read a fetched body to the end, StoringStream writes it into the package on the way
+    private fun drain(body: InputStream) {
+        val buffer = ByteArray(8 * 1024)
+        while (body.read(buffer) >= 0) {
+            // Nothing to do with the bytes here
+        }
+    }
+
+    fun clear() {
+        val evicted = synchronized(lock) {
+            packages.values.map { moveToTrash(it) }.also {
+                packages.clear()
+            }
+        }
+        evicted.forEach { it.deleteRecursively() }
+    }
+
+    private fun isCacheable(uri: Uri): Boolean {
+        if (uri.scheme != "https" && uri.scheme != "http") {
+            return false
+        }
+        val path = uri.path ?: return false
+        val extension = path.substringAfterLast('/').substringAfterLast('.', "").lowercase()
+        // Directory style urls are served as the entry html.
+        return extension.isEmpty() && path.endsWith("/") || extension in CACHEABLE_EXTENSIONS
+    }
+
+    // Whatever the WebView would send with cookies may be personal, it is not ours to share
+    private fun hasCookies(url: String): Boolean {
+        return try {
+            !CookieManager.getInstance().getCookie(url).isNullOrEmpty()
+        } catch (e: Exception) {
+            true
+        }
+    }
+
+    private fun markPending(url: String): Boolean {
+        synchronized(lock) {
+            return pendingDownloads.add(url)
+        }
+    }
+
+    private fun packageKey(appId: String, version: String) = "$appId@$version"
+
+    private fun getOrCreatePackage(appId: String, version: String): Package? {
+        val root = rootDir ?: return null
+        val key = packageKey(appId, version)
+        return packages[key] ?: Package(appId, version, File(root, key)).also {
+            packages[key] = it
+        }
+    }
+
+    // Same resource cached for another version of the app, revalidated instead of a full download
+    private fun previousVersion(appId: String, version: String, url: String): Pair<Package, Entry>? {
+        return synchronized(lock) {
+            packages.values.firstOrNull { it.appId == appId && it.version != version && it.entries.containsKey(url) }
+                ?.let { it to it.entries[url]!! }
+        }
+    }
+
+    /**
+     * Request [url] once and answer with its body, stored into the package when it can be shared.
+     * With a [base] entry, of this or another version, the request is conditional and a 304
+     * answers from its file. [url] must be marked pending, it is released when the body is done.
+     * @return null for a redirect, which the WebView has to follow itself
+     */
+    private fun fetch(
+        appId: String,
+        version: String,
+        url: String,
+        headers: Map<String, String>?,
+        base: Pair<Package, Entry>?
+    ): WebResourceResponse? {
+        val builder = Request.Builder().url(url)
+        headers?.forEach { (name, value) ->
+            if (FORWARDED_REQUEST_HEADERS.any { it.equals(name, ignoreCase = true) }) {
+                builder.header(name, value)
+            }
+        }
+        base?.second?.etag?.also { builder.header("If-None-Match", it) }
+        base?.second?.lastModified?.also { builder.header("If-Modified-Since", it) }
+
+        val response = client.newCall(builder.build()).execute()
+        if (response.code == 304 && base != null) {
+            response.close()
+            // A 304 may carry a new lifetime, otherwise the stored one starts over
+            val merged = Headers.Builder().apply {
+                base.second.responseHeaders().forEach { (name, value) -> set(name, value) }
+                response.headers.forEach { (name, value) -> set(name, value) }
+            }.build()
+            val entry = base.second.withExpiry(expiresAt(merged))
+            val adopted = synchronized(lock) {
+                pendingDownloads.remove(url)
+                if (base.first.version == version) {
+                    refresh(base.first, entry)
+                } else {
+                    adopt(appId, version, base.first, entry)
+                }
+            } ?: return null
+            return WebResourceResponse(adopted.first.mimeType, adopted.first.encoding, 200, "OK",
+                adopted.first.responseHeaders(), FileInputStream(adopted.second))
+        }
+
+        val body = response.body
+        if (response.code !in 200..299 && response.code !in 400..599 || body == null) {
+            response.close()
+            synchronized(lock) {
+                pendingDownloads.remove(url)
+            }
+            return null
+        }
+
+        val contentType = body.contentType()
+        val mimeType = contentType?.let { "${it.type}/${it.subtype}" }
+            ?: MimeTypeMap.getSingleton().getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(url))
+            ?: "application/octet-stream"
+        val encoding = contentType?.charset()?.name()
+        val reason = response.message.ifEmpty { if (response.isSuccessful) "OK" else "Error" }
+
+        val pkg = if (isShareable(response)) synchronized(lock) { getOrCreatePackage(appId, version) } else null
+        if (pkg == null) {
+            synchronized(lock) {
+                pendingDownloads.remove(url)
+                // The stored copy is no longer what the server hands out, unless it is only failing for now
+                if (base != null && base.first.version == version && response.code < 500) {
+                    base.first.entries.remove(url)?.also { File(base.first.dir, it.fileName).delete() }
+                    base.first.save()
+                }
+            }
+            response.headers.values("Set-Cookie").forEach { CookieManager.getInstance().setCookie(url, it) }
+            return WebResourceResponse(mimeType, encoding, response.code, reason, passThroughHeaders(response.headers), body.byteStream())
+        }
+
+        pkg.dir.mkdirs()
+        val fileName = url.hashCode().toUInt().toString(16) + "_" + System.nanoTime().toString(16)
+        val file = File(pkg.dir, fileName)
+        val entryHeaders = storedHeaders(response.headers)
+        val stream = StoringStream(body.byteStream(), file) { stored ->
+            val committed = synchronized(lock) {
+                pendingDownloads.remove(url)
+                // The package may have been evicted while the page was reading
+                if (stored && packages[packageKey(appId, version)] === pkg) {
+                    pkg.entries.put(url, Entry(
+                        url = url,
+                        fileName = fileName,
+                        mimeType = mimeType,
+                        encoding = encoding,
+                        etag = response.header("ETag"),
+                        lastModified = response.header("Last-Modified"),
+                        size = file.length(),
+                        headers = entryHeaders,
+                        expiresAt = expiresAt(response.headers)
+                    ))?.also { old ->
+                        File(pkg.dir, old.fileName).delete()
+                    }
+                    pkg.save()
+                    true
+                } else {
+                    false
+                }
+            }
+            if (committed) {
+                scheduleTrim(pkg)
+            } else {
+                file.delete()
+            }
+        }
+        return WebResourceResponse(mimeType, encoding, 200, reason, decodeHeaders(entryHeaders), stream)
+    }
+
+    // Keep the unchanged file with its new lifetime
+    private fun refresh(pkg: Package, entry: Entry): Pair<Entry, File>? {
+        if (pkg.entries[entry.url]?.fileName != entry.fileName) {
+            return null
+        }
+        pkg.entries[entry.url] = entry
+        pkg.save()
+        return entry to File(pkg.dir, entry.fileName)
+    }
+
+    // Move the unchanged file of the previous version into the new one
+    private fun adopt(appId: String, version: String, basePackage: Package, baseEntry: Entry): Pair<Entry, File>? {
+        val pkg = getOrCreatePackage(appId, version) ?: return null
+        pkg.dir.mkdirs()
+        val from = File(basePackage.dir, baseEntry.fileName)
+        val to = File(pkg.dir, baseEntry.fileName)
+        if (!from.renameTo(to)) {
+            return null
+        }
+        basePackage.entries.remove(baseEntry.url)
+        basePackage.save()
+        pkg.entries[baseEntry.url] = baseEntry
+        pkg.save()
+        return baseEntry to to
+    }
+
+    private fun isShareable(response: Response): Boolean {
+        if (response.code != 200 || response.header("Set-Cookie") != null) {
+            return false
+        }
+        val cacheControl = response.headers.values("Cache-Control").joinToString(",").lowercase()
+        if (cacheControl.contains("no-store") || cacheControl.contains("no-cache") || cacheControl.contains("private")) {
+            return false
+        }
+        val vary = response.headers.values("Vary").joinToString(",").lowercase()
+        return !vary.contains("cookie") && !vary.contains("*")
+    }
+
+    /**
+     * Time until which a response with [headers] is fresh, following RFC 9111: max-age less the
+     * Age it already had, else Expires, else a tenth of the time since Last-Modified.
+     */
+    private fun expiresAt(headers: Headers): Long {
+        val now = System.currentTimeMillis()
+        val date = headers.getDate("Date")?.time ?: now
+        val maxAgeSeconds = CacheControl.parse(headers).maxAgeSeconds
+        val expires = headers.getDate("Expires")
+        val lastModified = headers.getDate("Last-Modified")
+        val lifetime = when {
+            maxAgeSeconds >= 0 -> TimeUnit.SECONDS.toMillis(maxAgeSeconds.toLong() - (headers["Age"]?.toLongOrNull() ?: 0))
+            expires != null -> expires.time - date
+            lastModified != null -> minOf((date - lastModified.time) / 10, MAX_HEURISTIC_FRESHNESS_MS)
+            else -> 0
+        }
+        return now + lifetime.coerceAtLeast(0)
+    }
+
+    private fun storedHeaders(headers: Headers): String {
+        return headers.names()
+            .filter { it.lowercase() in STORED_RESPONSE_HEADERS }
+            .joinToString(HEADER_SEPARATOR.toString()) { name ->
+                "$name: " + headers.values(name).joinToString(", ").replace('\t', ' ').replace(HEADER_SEPARATOR, ' ')
+            }
+    }
+
+    private fun decodeHeaders(stored: String): Map<String, String> {
+        if (stored.isEmpty()) {
+            return emptyMap()
+        }
+        return stored.split(HEADER_SEPARATOR).associate {
+            it.substringBefore(": ") to it.substringAfter(": ")
+        }
+    }
+
+    private fun passThroughHeaders(headers: Headers): Map<String, String> {
+        return headers.names()
+            .filterNot { it.equals("Set-Cookie", ignoreCase = true) || it.equals("Content-Type", ignoreCase = true) }
+            .associateWith { headers.values(it).joinToString(", ") }
+    }
+
+    // Deleting packages can wait for a quiet main thread
+    private fun scheduleTrim(active: Package) {
+        Utilities.backgroundQueue.postIdle(Runnable {
+            val evicted = synchronized(lock) {
+                trimToBudget(active)
+            }
+            evicted.forEach { it.deleteRecursively() }
+        }, key = TRIM_KEY)
+    }
+
+    /**
+     * Evict least recently used packages until the store fits in [maxBytes], never the [active] one.
+     * Evicted packages leave the index and are moved aside, the caller deletes the returned
+     * directories once it no longer holds the lock.
+     */
+    private fun trimToBudget(active: Package?): List<File> {
+        var total = packages.values.sumOf { it.totalBytes }
+        if (total <= maxBytes) {
+            return emptyList()
+        }
+        val evicted = ArrayList<File>()
+        for (pkg in packages.values.filter { it !== active }.sortedBy { it.lastAccess }) {
+            if (total <= maxBytes) {
+                break
+            }
+            total -= pkg.totalBytes
+            packages.remove(packageKey(pkg.appId, pkg.version))
+            evicted.add(moveToTrash(pkg))
+            LogTimber.tag(TAG).d("evict package ${pkg.appId}@${pkg.version}")
+        }
+        return evicted
+    }
+
+    // A rename is cheap under the lock and frees the name for a new package right away
+    private fun moveToTrash(pkg: Package): File {
+        val trash = File(pkg.dir.parentFile, "$TRASH_PREFIX${pkg.dir.name}_${System.nanoTime()}")
+        return if (pkg.dir.renameTo(trash)) trash else pkg.dir
+    }
+}
@@ -0,0 +1,78 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import io.miniapp.core.openplatform.miniapp.utils.DispatchQueue
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+
+/**
+ * Expiry of cached WebViews.
+ *
+ * A WebView expires when its page is older than the app's TTL, when it has been hidden longer
+ * than the idle timeout, or when the WebView itself is older than the max age. The TTL and
+ * idle timeout come from the app options when set. While the cache holds WebViews a sweep
+ * runs every [SWEEP_INTERVAL_MS], expired hidden entries leave the cache at once and are torn
+ * down one per idle pass of the main thread. All access happens on the main thread.
+ */
+internal object WebViewExpiry {
+
+    private const val TAG = "WebViewExpiry"
+    private const val SWEEP_INTERVAL_MS = 60 * 1000L
+
+    const val DEFAULT_TTL_MS = 60 * 60 * 1000L
+    const val DEFAULT_IDLE_TIMEOUT_MS = 30 * 60 * 1000L
+    const val DEFAULT_MAX_AGE_MS = 6 * 60 * 60 * 1000L
+
+    var idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS
+    var maxAgeMs = DEFAULT_MAX_AGE_MS
+
+    private val handler = Handler(Looper.getMainLooper())
+    private var sweepScheduled = false
+
+    private val sweepRunnable = Runnable {
+        sweepScheduled = false
+        sweep()
+    }
+
+    /**
+     * @return why [webView] has expired, or null while it is still fresh
+     */
+    fun expiryReason(webView: DefaultAppWebView, now: Long = SystemClock.elapsedRealtime()): EvictionReason? {
+        val options = webView.appSettings
+        val ttlMs = options?.cacheTtl?.let { it * 1000 } ?: DEFAULT_TTL_MS
+        if (now - webView.loadedAt > ttlMs) {
+            return EvictionReason.TTL
+        }
+        val idleMs = options?.cacheIdleTimeout?.let { it * 1000 } ?: idleTimeoutMs
+        if (webView.isParentDismiss() && webView.hiddenAt > 0 && now - webView.hiddenAt > idleMs) {
+            return EvictionReason.IDLE
+        }
+        if (now - webView.createdAt > maxAgeMs) {
+            return EvictionReason.MAX_AGE
+        }
+        return null
+    }
+
+    fun scheduleSweep() {
+        if (sweepScheduled) {
+            return
+        }
+        sweepScheduled = true
+        handler.postDelayed(sweepRunnable, SWEEP_INTERVAL_MS)
+    }
+
+    fun sweep() {
+        val now = SystemClock.elapsedRealtime()
+        val expired = WebAppLruCache.removeExpired { expiryReason(it, now) }
+        if (expired.isNotEmpty()) {
+            LogTimber.tag(TAG).d("expired ${expired.size}")
+            expired.forEach { webView ->
+                DispatchQueue.main.postIdle(Runnable { webView.clearAfterDismiss() })
+            }
+        }
+        if (WebAppLruCache.size > 0) {
+            scheduleSweep()
+        }
+    }
+}
@@ -1,58 +1,271 @@
 package io.miniapp.core.openplatform.miniapp.ui.webview
 
-import android.util.LruCache
-import android.webkit.WebView
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.os.SystemClock
+import io.miniapp.core.openplatform.miniapp.utils.AndroidUtils
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
+import io.miniapp.core.openplatform.miniapp.utils.Utilities
 import java.lang.ref.WeakReference
+import java.util.EnumMap
 
+internal enum class EvictionReason {
+    CAPACITY,
+    MEMORY_PRESSURE,
+    TTL,
+    IDLE,
+    MAX_AGE
+}
+
+/**
+ * Cache of dismissed mini app WebViews, bounded by a count and a memory budget picked from the
+ * device performance class.
+ *
+ * Renderer memory is not observable per WebView, so each entry is weighed from the size of its
+ * page. Entries hidden the longest and weighing the most go first, both when the cache is over
+ * budget and progressively as the system reports memory pressure. WebViews still on screen are
+ * only dropped from the cache, never destroyed.
+ */
 internal object WebAppLruCache {
 
-    internal class WebViewCache : LruCache<String, WeakReference<DefaultAppWebView>>(
-        DEFAULT_MAX_SIZE
-    ) {
-        override fun entryRemoved(
-            evicted: Boolean,
-            key: String?,
-            oldValue: WeakReference<DefaultAppWebView>?,
-            newValue: WeakReference<DefaultAppWebView>?
-        ) {
-            if (true==oldValue?.get()?.isParentDismiss()) {
-                oldValue.get()?.clearAfterDismiss()
-            }
-        }
+    private const val TAG = "WebAppLruCache"
+    private const val DEFAULT_MAX_SIZE = 5
+
+    // Renderer baseline of a loaded page, and the most a large page adds on top of it
+    private const val BASE_WEIGHT_MB = 50
+    private const val MAX_PAGE_WEIGHT_MB = 100
+
+    private class Entry(webView: DefaultAppWebView) {
+        val ref = WeakReference(webView)
     }
 
-    private const val DEFAULT_MAX_SIZE = 5
+    private val lock = Any()
+
+    // Access ordered, eldest first
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    private var maxSize = DEFAULT_MAX_SIZE
+    private var budgetMb = Int.MAX_VALUE
+    private var registered = false
+
+    // Host limit passed to resize, applied again once the device class is known
+    private var requestedSize = DEFAULT_MAX_SIZE
+
+    // Measured off the main thread by init, the low class until then
+    @Volatile
+    private var performanceClass = AndroidUtils.PERFORMANCE_CLASS_LOW
+
+    private val evictions = EnumMap<EvictionReason, Long>(EvictionReason::class.java)
+
+    val evictionCount: Long
+        get() = synchronized(lock) { evictions.values.sum() }
+
+    val size: Int
+        get() = synchronized(lock) { entries.size }
+
+    private val trimCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            trim(level)
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {
+        }
 
-    private val webViewCache = WebViewCache()
+        @Deprecated("Deprecated in Java")
+        override fun onLowMemory() {
+            trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        }
+    }
 
+    fun init(context: Context, size: Int) {
+        UiThreadUtil.runOnUiThread {
+            if (!registered) {
+                registered = true
+                context.applicationContext.registerComponentCallbacks(trimCallbacks)
+            }
+            resize(size)
+        }
+        Utilities.backgroundQueue.postRunnable {
+            performanceClass = AndroidUtils.getMeasuredDevicePerformanceClass()
+            UiThreadUtil.runOnUiThread {
+                resize(synchronized(lock) { requestedSize })
+            }
+        }
+    }
+
+    /**
+     * @param size the most entries the host allows, lowered further on slower devices
+     */
     fun resize(size: Int) {
-        if (webViewCache.maxSize() != size) {
-            webViewCache.resize(size)
+        val (classSize, classBudget) = when (performanceClass) {
+            AndroidUtils.PERFORMANCE_CLASS_LOW -> 1 to 150
+            AndroidUtils.PERFORMANCE_CLASS_AVERAGE -> 3 to 400
+            else -> 5 to 750
+        }
+        synchronized(lock) {
+            requestedSize = size
+            maxSize = minOf(size, classSize).coerceAtLeast(0)
+            budgetMb = classBudget
         }
+        LogTimber.tag(TAG).d("resize size=$maxSize budget=${classBudget}MB")
+        evictTo(maxSize, budgetMb, hiddenOnly = false, EvictionReason.CAPACITY)
     }
 
     fun get(key: String): DefaultAppWebView? {
-        return webViewCache.get(key)?.get()
+        synchronized(lock) {
+            val entry = entries[key] ?: return null
+            val webView = entry.ref.get()
+            if (webView == null) {
+                entries.remove(key)
+            }
+            return webView
+        }
     }
 
     fun put(key: String, webView: DefaultAppWebView) {
-        webViewCache.put(key, WeakReference(webView))
+        val old = synchronized(lock) {
+            entries.put(key, Entry(webView))
+        }
+        old?.ref?.get()?.takeIf { it !== webView }?.also { release(it) }
+        evictTo(maxSize, budgetMb, hiddenOnly = false, EvictionReason.CAPACITY)
+        WebViewExpiry.scheduleSweep()
     }
 
     fun remove(key: String): DefaultAppWebView? {
-        return webViewCache.remove(key)?.get()
+        val webView = synchronized(lock) {
+            entries.remove(key)
+        }?.ref?.get() ?: return null
+        release(webView)
+        return webView
     }
 
     fun remove(webView: DefaultAppWebView): DefaultAppWebView? {
-        val key = webViewCache.snapshot()
-            .entries
-            .firstOrNull { it.value.get() === webView }
-            ?.key
-            ?: return null
-        return webViewCache.remove(key)?.get()
+        val key = synchronized(lock) {
+            entries.entries.firstOrNull { it.value.ref.get() === webView }?.key
+        } ?: return null
+        return remove(key)
+    }
+
+    /**
+     * Drop the hidden entries [reasonOf] returns a reason for, the caller tears them down.
+     */
+    fun removeExpired(reasonOf: (DefaultAppWebView) -> EvictionReason?): List<DefaultAppWebView> {
+        val expired = ArrayList<DefaultAppWebView>()
+        synchronized(lock) {
+            val iterator = entries.values.iterator()
+            while (iterator.hasNext()) {
+                val webView = iterator.next().ref.get()
+                if (webView == null) {
+                    iterator.remove()
+                    continue
+                }
+                if (!webView.isParentDismiss()) {
+                    continue
+                }
+                val reason = reasonOf(webView) ?: continue
+                iterator.remove()
+                count(reason)
+                expired.add(webView)
+            }
+        }
+        return expired
+    }
+
+    /**
+     * Evictions so far by reason, for metrics.
+     */
+    fun evictionsByReason(): Map<EvictionReason, Long> {
+        synchronized(lock) {
+            return EnumMap(evictions)
+        }
     }
 
     fun removeAll() {
-        webViewCache.evictAll()
+        val removed = synchronized(lock) {
+            entries.values.mapNotNull { it.ref.get() }.also { entries.clear() }
+        }
+        removed.forEach { release(it) }
+    }
+
+    private fun trim(level: Int) {
+        val budget = synchronized(lock) { budgetMb }
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> evictTo(0, 0, hiddenOnly = true, EvictionReason.MEMORY_PRESSURE)
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> evictTo(1, budget / 2, hiddenOnly = true, EvictionReason.MEMORY_PRESSURE)
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> evictTo(Int.MAX_VALUE, budget * 3 / 4, hiddenOnly = true, EvictionReason.MEMORY_PRESSURE)
+        }
+    }
+
+    /**
+     * Evict until at most [count] entries weighing at most [weightMb] are left. With [hiddenOnly]
+     * entries on screen are kept and still count towards the limits.
+     */
+    private fun evictTo(count: Int, weightMb: Int, hiddenOnly: Boolean, reason: EvictionReason) {
+        val victims = ArrayList<DefaultAppWebView>()
+        synchronized(lock) {
+            entries.values.removeAll { it.ref.get() == null }
+
+            val now = SystemClock.elapsedRealtime()
+            val weights = entries.mapValues { estimateWeightMb(it.value.ref.get()!!) }
+            var total = weights.values.sum()
+
+            // Hidden the longest and weighing the most first, then the rest oldest first. The
+            // hidden time comes from the WebView's dismissal, not from cache reads
+            val candidates = entries.entries
+                .filter { it.value.ref.get()!!.isParentDismiss() }
+                .sortedByDescending {
+                    val hiddenAt = it.value.ref.get()!!.hiddenAt.takeIf { at -> at > 0 } ?: now
+                    weights.getValue(it.key).toLong() * (1 + (now - hiddenAt) / 60_000)
+                }
+                .map { it.key }
+                .toMutableList()
+            if (!hiddenOnly) {
+                candidates += entries.keys.filter { it !in candidates }
+            }
+
+            for (key in candidates) {
+                if (entries.size <= count && total <= weightMb) {
+                    break
+                }
+                val entry = entries.remove(key) ?: continue
+                total -= weights.getValue(key)
+                count(reason)
+                entry.ref.get()?.also { victims.add(it) }
+            }
+        }
+        if (victims.isNotEmpty()) {
+            LogTimber.tag(TAG).d("evicted ${victims.size} for $reason, evictions=${evictionsByReason()}")
+        }
+        victims.forEach { release(it) }
+    }
+
+    private fun count(reason: EvictionReason) {
+        evictions[reason] = (evictions[reason] ?: 0L) + 1
+    }
+
+    private fun estimateWeightMb(webView: DefaultAppWebView): Int {
+        if (!webView.isPageLoaded) {
+            return BASE_WEIGHT_MB
+        }
+        val density = webView.resources.displayMetrics.density
+        val pageBytes = webView.contentHeight * density * webView.width.coerceAtLeast(1) * 4
+        return BASE_WEIGHT_MB + minOf(MAX_PAGE_WEIGHT_MB, (pageBytes / (1024 * 1024)).toInt())
+    }
+
+    private fun release(webView: DefaultAppWebView) {
+        if (!webView.isParentDismiss()) {
+            return
+        }
+        if (UiThreadUtil.isOnUiThread()) {
+            webView.clearAfterDismiss()
+        } else {
+            UiThreadUtil.runOnUiThread {
+                webView.clearAfterDismiss()
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import io.miniapp.core.openplatform.miniapp.ui.setupForMiniApp
+import io.miniapp.core.openplatform.miniapp.utils.DispatchQueue
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
+
+/**
+ * Keeps a few pre-constructed [DefaultAppWebView] instances around so a
+ * [WebAppLruCache] miss does not pay the Chromium start-up cost on the launch path.
+ * All access happens on the main thread.
+ */
+internal object WebViewPool {
+
+    private const val TAG = "WebViewPool"
+    private const val DEFAULT_POOL_SIZE = 1
+    private const val REFILL_KEY = "webview_pool_refill"
+
+    private val pool = ArrayDeque<DefaultAppWebView>()
+
+    private var appContext: Context? = null
+    private var maxSize = DEFAULT_POOL_SIZE
+    private var lowWaterMark = 1
+    private var refillPaused = false
+
+    var hitCount = 0
+        private set
+    var missCount = 0
+        private set
+
+    val size: Int
+        get() = pool.size
+
+    // One WebView per idle pass of the main thread until the pool is full
+    private val refill = Runnable {
+        val context = appContext
+        if (context == null || refillPaused || pool.size >= maxSize) {
+            return@Runnable
+        }
+        try {
+            pool.addLast(createWebView(context))
+        } catch (e: Throwable) {
+            LogTimber.tag(TAG).e(e, "prewarm failed")
+            return@Runnable
+        }
+        scheduleRefill()
+    }
+
+    private val trimCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            trim(level)
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {
+        }
+
+        @Deprecated("Deprecated in Java")
+        override fun onLowMemory() {
+            trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        }
+    }
+
+    fun init(context: Context, poolSize: Int) {
+        UiThreadUtil.runOnUiThread {
+            if (appContext == null) {
+                context.applicationContext.registerComponentCallbacks(trimCallbacks)
+            }
+            appContext = context.applicationContext
+            resize(poolSize)
+        }
+    }
+
+    fun resize(poolSize: Int) {
+        maxSize = poolSize.coerceAtLeast(0)
+        lowWaterMark = (maxSize + 1) / 2
+        trimToSize(maxSize)
+        scheduleRefill()
+    }
+
+    /**
+     * Take a warm WebView from the pool, or build a new one when the pool is empty.
+     */
+    fun obtain(context: Context): DefaultAppWebView {
+        refillPaused = false
+        val webView = pool.removeFirstOrNull()?.apply {
+            hitCount++
+            refreshAppId()
+            resetAge()
+        } ?: run {
+            missCount++
+            DefaultAppWebView(context)
+        }
+        LogTimber.tag(TAG).d("obtain hit=$hitCount miss=$missCount size=${pool.size}")
+        if (pool.size < lowWaterMark) {
+            scheduleRefill()
+        }
+        return webView
+    }
+
+    fun clear() {
+        trimToSize(0)
+    }
+
+    private fun trim(level: Int) {
+        // Refill stays paused until the next checkout so the pool does not grow back under pressure.
+        when {
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                    || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> {
+                refillPaused = true
+                trimToSize(0)
+            }
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> {
+                refillPaused = true
+                trimToSize(lowWaterMark - 1)
+            }
+        }
+    }
+
+    private fun trimToSize(size: Int) {
+        while (pool.size > size.coerceAtLeast(0)) {
+            pool.removeLast().clearAfterDismiss()
+        }
+    }
+
+    private fun scheduleRefill() {
+        if (refillPaused || appContext == null || pool.size >= maxSize) {
+            return
+        }
+        DispatchQueue.main.postIdle(refill, key = REFILL_KEY)
+    }
+
+    private fun createWebView(context: Context): DefaultAppWebView {
+        return DefaultAppWebView(context, isPooled = true).apply {
+            setupForMiniApp(true)
+            // Spawn the renderer process ahead of time, the entry is dropped after the first real page.
+            loadUrl("about:blank")
+        }
+    }
+}
@@ -32,6 +32,7 @@ import android.widget.ImageView
 import androidx.annotation.AttrRes
 import androidx.annotation.ColorInt
 import androidx.annotation.StringRes
+import androidx.annotation.WorkerThread
 import androidx.core.content.ContextCompat
 import androidx.core.content.edit
 import androidx.preference.PreferenceManager
@@ -504,10 +505,17 @@ object AndroidUtils {
         -1853602818 // SDM439
     )
 
+    const val PERFORMANCE_CLASS_LOW = 0
+    const val PERFORMANCE_CLASS_AVERAGE = 1
+    const val PERFORMANCE_CLASS_HIGH = 2
+
     private const val overrideDevicePerformanceClass = 0
 
     private var devicePerformanceClass = 0
 
+    @Volatile
+    private var measuredPerformanceClass = -1
+
     fun capitalizeFirst(str: String?): String {
         if (str == null) return ""
         return if (str.length <= 1) str.uppercase(Locale.getDefault()) else str.substring(0, 1)
@@ -526,6 +534,18 @@ object AndroidUtils {
         return devicePerformanceClass
     }
 
+    /**
+     * Class of this device without [overrideDevicePerformanceClass], measured once.
+     * Reads the cpufreq files of every core, call it off the main thread.
+     */
+    @WorkerThread
+    fun getMeasuredDevicePerformanceClass(): Int {
+        if (measuredPerformanceClass == -1) {
+            measuredPerformanceClass = measureDevicePerformanceClass()
+        }
+        return measuredPerformanceClass
+    }
+
     private fun measureDevicePerformanceClass(): Int {
         val androidVersion = Build.VERSION.SDK_INT
         val cpuCount: Int = CPU_COUNT
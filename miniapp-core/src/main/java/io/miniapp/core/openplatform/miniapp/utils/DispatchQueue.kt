@@ -1,128 +1,322 @@
 package io.miniapp.core.openplatform.miniapp.utils
 
 import android.os.Handler
+import android.os.HandlerThread
 import android.os.Looper
-import android.os.Message
+import android.os.MessageQueue
 import android.os.Process
 import android.os.SystemClock
-import java.util.concurrent.CountDownLatch
+import java.util.PriorityQueue
 
-internal class DispatchQueue : Thread {
-    @Volatile
-    private var handler: Handler? = null
-    private val syncLatch = CountDownLatch(1)
-    private var lastTaskTime: Long = 0
-    val index: Int = indexPointer++
-    private var threadPriority: Int =
-        THREAD_PRIORITY_DEFAULT
+/**
+ * Single thread task scheduler on top of a [Looper].
+ *
+ * Ready tasks run highest [Priority] first and in posting order within a priority, one per
+ * looper message so the order is re-evaluated after every task. Tasks can be delayed, repeat at
+ * a fixed period, or wait until the main thread is idle. A task posted with a key replaces the
+ * pending task with the same key. Posting never blocks: only creating a queue waits for its
+ * thread to start.
+ */
+internal class DispatchQueue(private val looper: Looper) {
 
-    @JvmOverloads
-    constructor(threadName: String?, start: Boolean = true) {
-        setName(threadName)
-        if (start) {
-            start()
+    constructor(threadName: String, threadPriority: Int = Process.THREAD_PRIORITY_DEFAULT) :
+        this(HandlerThread(threadName, threadPriority).apply { start() }.looper)
+
+    companion object {
+        private const val TAG = "DispatchQueue"
+
+        /**
+         * Tasks on the main thread.
+         */
+        val main by lazy {
+            DispatchQueue(Looper.getMainLooper())
         }
     }
 
-    constructor(threadName: String?, start: Boolean, priority: Int) {
-        threadPriority = priority
-        setName(threadName)
-        if (start) {
-            start()
+    enum class Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    private class Task(
+        val runnable: Runnable,
+        val priority: Priority,
+        val key: String?,
+        val periodMs: Long
+    ) {
+        var runAt = 0L
+        var sequence = 0L
+        var cancelled = false
+    }
+
+    private val handler = Handler(looper)
+    private val lock = Any()
+
+    private val ready = Array(Priority.values().size) { ArrayDeque<Task>() }
+    private val delayed = PriorityQueue<Task>(11, compareBy<Task>({ it.runAt }, { it.sequence }))
+    private val idle = ArrayDeque<Task>()
+    private val keyed = HashMap<String, Task>()
+
+    private var sequence = 0L
+    private var drainPosted = false
+    private var drainAt = Long.MAX_VALUE
+    // Main thread writes only, the idle handler is added and removed there
+    private var idleHandlerAdded = false
+    private var idleRegistrationPosted = false
+    private var released = false
+
+    var executedCount = 0L
+        private set
+    var replacedCount = 0L
+        private set
+
+    private val drain = Runnable {
+        val task = synchronized(lock) {
+            drainPosted = false
+            drainAt = Long.MAX_VALUE
+            promoteDueLocked(SystemClock.uptimeMillis())
+            nextReadyLocked()
+        }
+        if (task != null) {
+            execute(task)
+        }
+        synchronized(lock) {
+            scheduleLocked()
         }
     }
 
-    fun sendMessage(msg: Message?, delay: Int) {
-        try {
-            syncLatch.await()
-            if (delay <= 0) {
-                handler!!.sendMessage(msg!!)
-            } else {
-                handler!!.sendMessageDelayed(msg!!, delay.toLong())
+    // Moves one waiting task to its lane per idle pass of the main thread. Returning false
+    // removes it right away on the main thread, before any registration can run there
+    private val idleHandler = MessageQueue.IdleHandler {
+        synchronized(lock) {
+            while (idle.isNotEmpty()) {
+                val task = idle.removeFirst()
+                if (!task.cancelled) {
+                    enqueueLocked(task)
+                    break
+                }
+            }
+            scheduleLocked()
+            idle.isNotEmpty().also {
+                idleHandlerAdded = it
             }
-        } catch (ignore: Exception) {
         }
     }
 
-    fun cancelRunnable(runnable: Runnable?) {
-        try {
-            syncLatch.await()
-            handler!!.removeCallbacks(runnable!!)
-        } catch (e: Exception) {
-           e.printStackTrace()
+    private val registerIdleHandler = Runnable {
+        synchronized(lock) {
+            idleRegistrationPosted = false
+            if (idleHandlerAdded || idle.isEmpty() || released) {
+                return@Runnable
+            }
+            idleHandlerAdded = true
         }
+        Looper.getMainLooper().queue.addIdleHandler(idleHandler)
     }
 
-    fun cancelRunnables(runnables: Array<Runnable?>) {
-        try {
-            syncLatch.await()
-            for (i in runnables.indices) {
-                handler!!.removeCallbacks(runnables[i]!!)
+    fun post(
+        runnable: Runnable,
+        priority: Priority = Priority.NORMAL,
+        key: String? = null,
+        delayMs: Long = 0,
+        periodMs: Long = 0
+    ): Boolean {
+        val task = Task(runnable, priority, key, periodMs)
+        synchronized(lock) {
+            if (released) {
+                return false
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
+            replaceLocked(task)
+            if (delayMs > 0) {
+                task.runAt = SystemClock.uptimeMillis() + delayMs
+                task.sequence = sequence++
+                delayed.add(task)
+            } else {
+                enqueueLocked(task)
+            }
+            scheduleLocked()
         }
+        return true
+    }
+
+    /**
+     * Run [runnable] on this queue once the main thread has nothing else to do.
+     */
+    fun postIdle(runnable: Runnable, key: String? = null, priority: Priority = Priority.LOW): Boolean {
+        val task = Task(runnable, priority, key, 0)
+        synchronized(lock) {
+            if (released) {
+                return false
+            }
+            replaceLocked(task)
+            idle.addLast(task)
+            if (idleHandlerAdded || idleRegistrationPosted) {
+                return true
+            }
+            if (!UiThreadUtil.isOnUiThread()) {
+                // Registered on the main thread, the message also wakes an idle main thread
+                idleRegistrationPosted = true
+                MiniAppExecutors.mainHandler.post(registerIdleHandler)
+                return true
+            }
+        }
+        registerIdleHandler.run()
+        return true
     }
 
     fun postRunnable(runnable: Runnable?): Boolean {
-        lastTaskTime = SystemClock.elapsedRealtime()
-        return postRunnable(runnable, 0)
+        return post(runnable!!)
+    }
+
+    fun postRunnable(runnable: Runnable?, delay: Long): Boolean {
+        return post(runnable!!, delayMs = delay)
     }
 
     fun postToFrontRunnable(runnable: Runnable?): Boolean {
-        try {
-            syncLatch.await()
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-        return handler!!.postAtFrontOfQueue(runnable!!)
+        return post(runnable!!, Priority.HIGH)
     }
 
-    fun postRunnable(runnable: Runnable?, delay: Long): Boolean {
-        try {
-            syncLatch.await()
-        } catch (e: Exception) {
-            e.printStackTrace()
+    fun cancel(key: String) {
+        synchronized(lock) {
+            keyed.remove(key)?.cancelled = true
         }
-        return if (delay <= 0) {
-            handler!!.post(runnable!!)
-        } else {
-            handler!!.postDelayed(runnable!!, delay)
+    }
+
+    fun cancelRunnable(runnable: Runnable?) {
+        runnable ?: return
+        synchronized(lock) {
+            forEachPendingLocked {
+                if (it.runnable === runnable) {
+                    cancelLocked(it)
+                }
+            }
         }
     }
 
+    fun cancelRunnables(runnables: Array<Runnable?>) {
+        runnables.forEach { cancelRunnable(it) }
+    }
+
     fun cleanupQueue() {
+        synchronized(lock) {
+            forEachPendingLocked { it.cancelled = true }
+            ready.forEach { it.clear() }
+            delayed.clear()
+            idle.clear()
+            keyed.clear()
+        }
+    }
+
+    fun recycle() {
+        cleanupQueue()
+        synchronized(lock) {
+            released = true
+        }
+        handler.removeCallbacks(drain)
+        if (looper !== Looper.getMainLooper()) {
+            looper.quitSafely()
+        }
+    }
+
+    val isOnQueue: Boolean
+        get() = Looper.myLooper() === looper
+
+    private fun execute(task: Task) {
         try {
-            syncLatch.await()
-            handler!!.removeCallbacksAndMessages(null)
+            task.runnable.run()
         } catch (e: Exception) {
-            e.printStackTrace()
+            LogTimber.tag(TAG).e(e, "task failed")
+        }
+        executedCount++
+        if (task.periodMs <= 0) {
+            return
+        }
+        synchronized(lock) {
+            if (task.cancelled || released) {
+                return
+            }
+            // Fixed rate, a late run does not push the next ones back
+            val now = SystemClock.uptimeMillis()
+            task.runAt = maxOf(task.runAt + task.periodMs, now)
+            task.sequence = sequence++
+            delayed.add(task)
         }
     }
 
-    fun handleMessage(inputMessage: Message?) {}
-    fun recycle() {
-        handler!!.looper.quit()
+    private fun replaceLocked(task: Task) {
+        val key = task.key ?: return
+        keyed.put(key, task)?.also {
+            it.cancelled = true
+            replacedCount++
+        }
     }
 
-    override fun run() {
-        Looper.prepare()
-        handler = Handler(Looper.myLooper()!!) { msg: Message? ->
-            handleMessage(msg)
-            true
+    private fun cancelLocked(task: Task) {
+        task.cancelled = true
+        task.key?.also {
+            if (keyed[it] === task) {
+                keyed.remove(it)
+            }
         }
-        syncLatch.countDown()
-        if (threadPriority != THREAD_PRIORITY_DEFAULT) {
-            Process.setThreadPriority(threadPriority)
+    }
+
+    private fun enqueueLocked(task: Task) {
+        task.sequence = sequence++
+        ready[task.priority.ordinal].addLast(task)
+    }
+
+    private fun promoteDueLocked(now: Long) {
+        while (delayed.isNotEmpty() && delayed.peek()!!.runAt <= now) {
+            val task = delayed.poll()!!
+            if (!task.cancelled) {
+                ready[task.priority.ordinal].addLast(task)
+            }
         }
-        Looper.loop()
     }
 
-    val isReady: Boolean
-        get() = syncLatch.count == 0L
+    private fun nextReadyLocked(): Task? {
+        for (lane in ready) {
+            while (lane.isNotEmpty()) {
+                val task = lane.removeFirst()
+                if (task.cancelled) {
+                    continue
+                }
+                // A periodic task keeps its key until cancelled
+                if (task.periodMs <= 0) {
+                    task.key?.also {
+                        if (keyed[it] === task) {
+                            keyed.remove(it)
+                        }
+                    }
+                }
+                return task
+            }
+        }
+        return null
+    }
 
-    companion object {
-        private const val THREAD_PRIORITY_DEFAULT = -1000
-        private var indexPointer = 0
+    private fun scheduleLocked() {
+        if (released) {
+            return
+        }
+        val runAt = when {
+            ready.any { it.isNotEmpty() } -> SystemClock.uptimeMillis()
+            delayed.isNotEmpty() -> delayed.peek()!!.runAt
+            else -> return
+        }
+        if (drainPosted && drainAt <= runAt) {
+            return
+        }
+        handler.removeCallbacks(drain)
+        handler.postAtTime(drain, runAt)
+        drainPosted = true
+        drainAt = runAt
+    }
+
+    private inline fun forEachPendingLocked(action: (Task) -> Unit) {
+        ready.forEach { lane -> lane.forEach(action) }
+        delayed.forEach(action)
+        idle.forEach(action)
     }
 }
@@ -14,7 +14,6 @@ import androidx.core.content.pm.ShortcutManagerCompat
 import androidx.core.graphics.drawable.IconCompat
 import com.bumptech.glide.Glide
 import io.miniapp.core.R
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 
 internal object HomeScreenShortcutUtils {
@@ -110,7 +109,7 @@ internal object HomeScreenShortcutUtils {
     }
 
     private suspend fun getBitmapFromUrl(context: Context, imageUrl: String): Bitmap? {
-        return withContext(Dispatchers.IO) {
+        return withContext(MiniAppExecutors.io) {
             try {
                 Glide.with(context)
                     .asBitmap()
@@ -0,0 +1,182 @@
+package io.miniapp.core.openplatform.miniapp.utils
+
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A [LogTimber.Tree] writing to a few rotating files in [dir].
+ *
+ * Logging threads claim a slot of a fixed size ring with a compare-and-set and publish the
+ * message into it, they never take a lock or touch the disk. When the writer is a whole ring
+ * behind the message is dropped and counted. The ring is drained on [Utilities.backgroundQueue]
+ * shortly after the first message of a batch, or right away for errors, into files of up to
+ * [maxFileBytes], keeping [maxFiles] of them.
+ */
+internal class LogFileTree(
+    private val dir: File,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val maxFileBytes: Long = DEFAULT_MAX_FILE_BYTES,
+    private val maxFiles: Int = DEFAULT_MAX_FILES
+) : LogTimber.Tree() {
+
+    companion object {
+        private const val DEFAULT_CAPACITY = 1024
+        private const val DEFAULT_MAX_FILE_BYTES = 1024L * 1024
+        private const val DEFAULT_MAX_FILES = 3
+        private const val DRAIN_DELAY_MS = 500L
+        private const val FILE_NAME = "miniapp"
+        private const val FILE_EXTENSION = ".log"
+        private const val PRIORITY_LETTERS = "??VDIWEA"
+    }
+
+    // A slot is free while its message is null, the other fields are published with it
+    private val messages = AtomicReferenceArray<String>(capacity)
+    private val tags = arrayOfNulls<String>(capacity)
+    private val priorities = IntArray(capacity)
+    private val times = LongArray(capacity)
+
+    // Next sequence to claim and next one to write out
+    private val head = AtomicLong()
+    private val tail = AtomicLong()
+
+    private val drainScheduled = AtomicBoolean()
+
+    private val _dropped = AtomicLong()
+
+    /**
+     * Messages lost because the ring was full.
+     */
+    val dropped: Long
+        get() = _dropped.get()
+
+    // Writer state, only touched on the background queue
+    private var writer: Writer? = null
+    private var fileBytes = 0L
+    private val line = StringBuilder(256)
+    private val date = Date()
+    private val dateFormat = SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US)
+
+    private val drain = Runnable {
+        drainScheduled.set(false)
+        writeOut()
+    }
+
+    override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+        var sequence: Long
+        do {
+            sequence = head.get()
+            if (sequence - tail.get() >= capacity) {
+                _dropped.incrementAndGet()
+                return
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1))
+
+        val slot = (sequence % capacity).toInt()
+        tags[slot] = tag
+        priorities[slot] = priority
+        times[slot] = System.currentTimeMillis()
+        messages.set(slot, message)
+
+        val urgent = priority >= Log.ERROR
+        if (drainScheduled.compareAndSet(false, true)) {
+            Utilities.backgroundQueue.post(drain, DispatchQueue.Priority.LOW, delayMs = if (urgent) 0 else DRAIN_DELAY_MS)
+        } else if (urgent) {
+            Utilities.backgroundQueue.post(drain, DispatchQueue.Priority.LOW)
+        }
+    }
+
+    /**
+     * Write out what is left in the ring and close the current file.
+     */
+    fun close() {
+        Utilities.backgroundQueue.post(Runnable {
+            writeOut()
+            closeWriter()
+        })
+    }
+
+    private fun writeOut() {
+        var sequence = tail.get()
+        while (true) {
+            val slot = (sequence % capacity).toInt()
+            // Claimed but not published yet, its logger schedules another drain
+            val message = messages.get(slot) ?: break
+            line.setLength(0)
+            date.time = times[slot]
+            line.append(dateFormat.format(date))
+                .append(' ')
+                .append(PRIORITY_LETTERS.getOrElse(priorities[slot]) { '?' })
+                .append('/')
+                .append(tags[slot] ?: FILE_NAME)
+                .append(": ")
+                .append(message)
+                .append('\n')
+            tags[slot] = null
+            messages.set(slot, null)
+            tail.set(++sequence)
+            write(line)
+        }
+        try {
+            writer?.flush()
+        } catch (e: IOException) {
+            e.printStackTrace()
+            closeWriter()
+        }
+    }
+
+    private fun write(text: CharSequence) {
+        try {
+            if (fileBytes >= maxFileBytes) {
+                closeWriter()
+                rotate()
+            }
+            val out = writer ?: openWriter()
+            out.append(text)
+            fileBytes += text.length
+        } catch (e: IOException) {
+            // Not logged, it would only come back here
+            e.printStackTrace()
+            closeWriter()
+        }
+    }
+
+    private fun openWriter(): Writer {
+        dir.mkdirs()
+        val file = file(0)
+        fileBytes = file.length()
+        return OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8).buffered().also {
+            writer = it
+        }
+    }
+
+    private fun closeWriter() {
+        try {
+            writer?.close()
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+        writer = null
+    }
+
+    private fun rotate() {
+        file(maxFiles - 1).delete()
+        for (index in maxFiles - 1 downTo 1) {
+            file(index - 1).renameTo(file(index))
+        }
+        fileBytes = 0
+    }
+
+    private fun file(index: Int): File {
+        return File(dir, if (index == 0) "$FILE_NAME$FILE_EXTENSION" else "$FILE_NAME.$index$FILE_EXTENSION")
+    }
+}
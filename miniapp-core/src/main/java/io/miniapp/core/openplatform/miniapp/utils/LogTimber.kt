@@ -8,6 +8,7 @@ import java.io.StringWriter
 import java.util.ArrayList
 import java.util.Collections
 import java.util.Collections.unmodifiableList
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
 /** Logging for lazy people. */
@@ -121,6 +122,26 @@ class LogTimber private constructor() {
             prepareLog(Log.ASSERT, t, null)
         }
 
+        /** Log a verbose message built by [message] only if verbose messages are enabled. */
+        inline fun v(message: () -> String) {
+            if (Forest.isEnabled(Log.VERBOSE)) v(message()) else skipTag()
+        }
+
+        /** Log a debug message built by [message] only if debug messages are enabled. */
+        inline fun d(message: () -> String) {
+            if (Forest.isEnabled(Log.DEBUG)) d(message()) else skipTag()
+        }
+
+        /** Log an info message built by [message] only if info messages are enabled. */
+        inline fun i(message: () -> String) {
+            if (Forest.isEnabled(Log.INFO)) i(message()) else skipTag()
+        }
+
+        /** Log a warning message built by [message] only if warnings are enabled. */
+        inline fun w(message: () -> String) {
+            if (Forest.isEnabled(Log.WARN)) w(message()) else skipTag()
+        }
+
         /** Log at `priority` a message with optional format args. */
         open fun log(priority: Int, message: String?, vararg args: Any?) {
             prepareLog(priority, null, message, *args)
@@ -143,12 +164,22 @@ class LogTimber private constructor() {
         /** Return whether a message at `priority` or `tag` should be logged. */
         protected open fun isLoggable(tag: String?, priority: Int) = isLoggable(priority)
 
+        /** Drop the one-time tag of a call that is not logged. */
+        @PublishedApi
+        internal open fun skipTag() {
+            explicitTag.remove()
+        }
+
+        /** Tag of a call made without an explicit one, `null` by default. */
+        protected open fun inferTag(): String? = null
+
         private fun prepareLog(priority: Int, t: Throwable?, message: String?, vararg args: Any?) {
             // Consume tag even when message is not loggable so that next message is correctly tagged.
-            val tag = tag
-            if (!isLoggable(tag, priority)) {
+            val explicitTag = tag
+            if (!isLoggable(explicitTag, priority)) {
                 return
             }
+            val tag = explicitTag ?: inferTag()
 
             var message = message
             if (message.isNullOrEmpty()) {
@@ -201,10 +232,15 @@ class LogTimber private constructor() {
             DebugTree::class.java.name
         )
 
-        override val tag: String?
-            get() = super.tag ?: Throwable().stackTrace
-                .first { it.className !in fqcnIgnore }
-                .let(::createStackElementTag)
+        // Tags already derived, by calling class
+        private val tagCache = ConcurrentHashMap<String, String>()
+
+        override fun inferTag(): String? {
+            val element = Throwable().stackTrace.first { it.className !in fqcnIgnore }
+            return tagCache[element.className] ?: createStackElementTag(element)?.also {
+                tagCache[element.className] = it
+            }
+        }
 
         /**
          * Extract the tag which should be used for the message from the `element`. By default
@@ -274,114 +310,142 @@ class LogTimber private constructor() {
     companion object Forest : Tree() {
         /** Log a verbose message with optional format args. */
         @JvmStatic override fun v(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.v(message, *args) }
+            forEachTree(Log.VERBOSE) { it.v(message, *args) }
         }
 
         /** Log a verbose exception and a message with optional format args. */
         @JvmStatic override fun v(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.v(t, message, *args) }
+            forEachTree(Log.VERBOSE) { it.v(t, message, *args) }
         }
 
         /** Log a verbose exception. */
         @JvmStatic override fun v(t: Throwable?) {
-            treeArray.forEach { it.v(t) }
+            forEachTree(Log.VERBOSE) { it.v(t) }
         }
 
         /** Log a debug message with optional format args. */
         @JvmStatic override fun d(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.d(message, *args) }
+            forEachTree(Log.DEBUG) { it.d(message, *args) }
         }
 
         /** Log a debug exception and a message with optional format args. */
         @JvmStatic override fun d(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.d(t, message, *args) }
+            forEachTree(Log.DEBUG) { it.d(t, message, *args) }
         }
 
         /** Log a debug exception. */
         @JvmStatic override fun d(t: Throwable?) {
-            treeArray.forEach { it.d(t) }
+            forEachTree(Log.DEBUG) { it.d(t) }
         }
 
         /** Log an info message with optional format args. */
         @JvmStatic override fun i(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.i(message, *args) }
+            forEachTree(Log.INFO) { it.i(message, *args) }
         }
 
         /** Log an info exception and a message with optional format args. */
         @JvmStatic override fun i(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.i(t, message, *args) }
+            forEachTree(Log.INFO) { it.i(t, message, *args) }
         }
 
         /** Log an info exception. */
         @JvmStatic override fun i(t: Throwable?) {
-            treeArray.forEach { it.i(t) }
+            forEachTree(Log.INFO) { it.i(t) }
         }
 
         /** Log a warning message with optional format args. */
         @JvmStatic override fun w(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.w(message, *args) }
+            forEachTree(Log.WARN) { it.w(message, *args) }
         }
 
         /** Log a warning exception and a message with optional format args. */
         @JvmStatic override fun w(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.w(t, message, *args) }
+            forEachTree(Log.WARN) { it.w(t, message, *args) }
         }
 
         /** Log a warning exception. */
         @JvmStatic override fun w(t: Throwable?) {
-            treeArray.forEach { it.w(t) }
+            forEachTree(Log.WARN) { it.w(t) }
         }
 
         /** Log an error message with optional format args. */
         @JvmStatic override fun e(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.e(message, *args) }
+            forEachTree(Log.ERROR) { it.e(message, *args) }
         }
 
         /** Log an error exception and a message with optional format args. */
         @JvmStatic override fun e(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.e(t, message, *args) }
+            forEachTree(Log.ERROR) { it.e(t, message, *args) }
         }
 
         /** Log an error exception. */
         @JvmStatic override fun e(t: Throwable?) {
-            treeArray.forEach { it.e(t) }
+            forEachTree(Log.ERROR) { it.e(t) }
         }
 
         /** Log an assert message with optional format args. */
         @JvmStatic override fun wtf(@NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.wtf(message, *args) }
+            forEachTree(Log.ASSERT) { it.wtf(message, *args) }
         }
 
         /** Log an assert exception and a message with optional format args. */
         @JvmStatic override fun wtf(t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.wtf(t, message, *args) }
+            forEachTree(Log.ASSERT) { it.wtf(t, message, *args) }
         }
 
         /** Log an assert exception. */
         @JvmStatic override fun wtf(t: Throwable?) {
-            treeArray.forEach { it.wtf(t) }
+            forEachTree(Log.ASSERT) { it.wtf(t) }
         }
 
         /** Log at `priority` a message with optional format args. */
         @JvmStatic override fun log(priority: Int, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.log(priority, message, *args) }
+            forEachTree(priority) { it.log(priority, message, *args) }
         }
 
         /** Log at `priority` an exception and a message with optional format args. */
         @JvmStatic
         override fun log(priority: Int, t: Throwable?, @NonNls message: String?, vararg args: Any?) {
-            treeArray.forEach { it.log(priority, t, message, *args) }
+            forEachTree(priority) { it.log(priority, t, message, *args) }
         }
 
         /** Log at `priority` an exception. */
         @JvmStatic override fun log(priority: Int, t: Throwable?) {
-            treeArray.forEach { it.log(priority, t) }
+            forEachTree(priority) { it.log(priority, t) }
         }
 
         override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
             throw AssertionError() // Missing override for log method.
         }
 
+        /**
+         * Lowest priority that reaches the planted trees, lower calls return right away without
+         * formatting their message.
+         */
+        @Volatile
+        @JvmStatic
+        var minPriority = Log.VERBOSE
+
+        /** Return whether a message at `priority` reaches any planted tree. */
+        @JvmStatic fun isEnabled(priority: Int): Boolean {
+            return priority >= minPriority && treeArray.isNotEmpty()
+        }
+
+        @PublishedApi
+        override fun skipTag() {
+            for (tree in treeArray) {
+                tree.explicitTag.remove()
+            }
+        }
+
+        private inline fun forEachTree(priority: Int, action: (Tree) -> Unit) {
+            if (!isEnabled(priority)) {
+                skipTag()
+                return
+            }
+            treeArray.forEach(action)
+        }
+
         /**
          * A view into Timber's planted trees as a tree itself. This can be used for injecting a logger
          * instance rather than using static methods or to facilitate testing.
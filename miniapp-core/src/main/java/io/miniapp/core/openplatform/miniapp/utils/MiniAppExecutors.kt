@@ -0,0 +1,119 @@
+package io.miniapp.core.openplatform.miniapp.utils
+
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Threads and scopes of the SDK.
+ *
+ * Work runs on one of a few named lanes, each with its own bounded pool and thread priority, so
+ * background prefetching and cache upkeep can never take the threads of launch critical calls.
+ * Process wide work is launched in scopes made by [newScope]; the work of an open mini app is
+ * parented to its [appJob] and cancelled as a whole by [closeApp].
+ */
+internal object MiniAppExecutors {
+
+    private const val TAG = "MiniAppExecutors"
+    private const val KEEP_ALIVE_SECONDS = 30L
+
+    enum class Lane(val threads: Int, val threadPriority: Int) {
+        // Calls a launch or an open mini app waits on
+        BRIDGE(4, Process.THREAD_PRIORITY_DEFAULT),
+
+        // Disk and network calls
+        IO(8, Process.THREAD_PRIORITY_DEFAULT),
+
+        // Cache reads, writes and eviction
+        CACHE(2, Process.THREAD_PRIORITY_BACKGROUND),
+
+        // Speculative work, first to give way
+        PREFETCH(2, Process.THREAD_PRIORITY_LOWEST)
+    }
+
+    private class LaneThreadFactory(private val lane: Lane) : ThreadFactory {
+        private val count = AtomicInteger()
+
+        override fun newThread(runnable: Runnable): Thread {
+            return Thread({
+                Process.setThreadPriority(lane.threadPriority)
+                runnable.run()
+            }, "miniapp-${lane.name.lowercase()}-${count.incrementAndGet()}")
+        }
+    }
+
+    private val executors = Lane.values().associateWith { lane ->
+        ThreadPoolExecutor(
+            lane.threads,
+            lane.threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            LaneThreadFactory(lane)
+        ).apply {
+            allowCoreThreadTimeOut(true)
+        }
+    }
+
+    private val dispatchers = executors.mapValues { it.value.asCoroutineDispatcher() }
+
+    val bridge: CoroutineDispatcher = dispatchers.getValue(Lane.BRIDGE)
+    val io: CoroutineDispatcher = dispatchers.getValue(Lane.IO)
+    val cache: CoroutineDispatcher = dispatchers.getValue(Lane.CACHE)
+    val prefetch: CoroutineDispatcher = dispatchers.getValue(Lane.PREFETCH)
+
+    val mainHandler = Handler(Looper.getMainLooper())
+
+    private val rootJob = SupervisorJob()
+    private val appJobs = ConcurrentHashMap<String, Job>()
+
+    /**
+     * Process wide work not owned by a mini app, on the bridge lane unless a call says otherwise.
+     */
+    val sdkScope = newScope(bridge)
+
+    /**
+     * A scope whose children fail independently, for a component running its own background work.
+     */
+    fun newScope(dispatcher: CoroutineDispatcher): CoroutineScope {
+        return CoroutineScope(SupervisorJob(rootJob) + dispatcher)
+    }
+
+    /**
+     * Parent of all the work of the mini app opened under [appKey], created on first use.
+     */
+    fun appJob(appKey: String): Job {
+        return appJobs.computeIfAbsent(appKey) { SupervisorJob(rootJob) }
+    }
+
+    /**
+     * Cancel everything still running for [appKey].
+     */
+    fun closeApp(appKey: String) {
+        appJobs.remove(appKey)?.also {
+            it.cancel()
+            LogTimber.tag(TAG).d("closed $appKey, open apps=${appJobs.size}")
+        }
+    }
+
+    val openApps: Int
+        get() = appJobs.size
+
+    /**
+     * Tasks queued on [lane] and not started yet, for metrics.
+     */
+    fun queued(lane: Lane): Int {
+        return executors.getValue(lane).queue.size
+    }
+}
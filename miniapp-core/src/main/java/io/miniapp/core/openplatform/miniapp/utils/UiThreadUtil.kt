@@ -1,10 +1,8 @@
 package io.miniapp.core.openplatform.miniapp.utils
 
-import android.os.Handler
 import android.os.Looper
 
 internal object UiThreadUtil {
-    private var sMainHandler: Handler? = null
 
     fun isOnUiThread(): Boolean {
         return Looper.getMainLooper().thread === Thread.currentThread()
@@ -15,18 +13,13 @@ internal object UiThreadUtil {
     }
 
     fun runOnUiThread(runnable: Runnable?, delayInMs: Long) {
-        synchronized(UiThreadUtil::class.java) {
-            if (sMainHandler == null) {
-                sMainHandler = Handler(Looper.getMainLooper())
-            }
-        }
-        sMainHandler!!.postDelayed(runnable!!, delayInMs)
+        MiniAppExecutors.mainHandler.postDelayed(runnable!!, delayInMs)
     }
 
     fun cancelRunOnUIThread(runnable: Runnable?) {
-        if (sMainHandler== null || runnable == null) {
+        if (runnable == null) {
             return
         }
-        sMainHandler?.removeCallbacks(runnable)
+        MiniAppExecutors.mainHandler.removeCallbacks(runnable)
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ import android.graphics.Canvas
 import android.graphics.Paint
 import android.graphics.Path
 import android.graphics.Rect
+import android.os.Process
 import io.miniapp.core.BuildConfig
 import java.io.File
 import java.io.FileInputStream
@@ -25,28 +26,13 @@ internal object Utilities {
     var random = SecureRandom()
 
     @Volatile
-    var stageQueue: DispatchQueue = DispatchQueue("stageQueue")
+    var webEventQueue: DispatchQueue = DispatchQueue("webEventQueue")
 
-    @Volatile
-    var globalQueue: DispatchQueue = DispatchQueue("globalQueue")
-
-    @Volatile
-    var cacheClearQueue: DispatchQueue = DispatchQueue("cacheClearQueue")
-
-    @Volatile
-    var searchQueue: DispatchQueue = DispatchQueue("searchQueue")
-
-    @Volatile
-    var phoneBookQueue: DispatchQueue = DispatchQueue("phoneBookQueue")
-
-    @Volatile
-    var themeQueue: DispatchQueue = DispatchQueue("themeQueue")
-
-    @Volatile
-    var externalNetworkQueue: DispatchQueue = DispatchQueue("externalNetworkQueue")
+    // Upkeep that waits for an idle main thread, started on first use
+    val backgroundQueue by lazy {
+        DispatchQueue("backgroundQueue", Process.THREAD_PRIORITY_BACKGROUND)
+    }
 
-    @Volatile
-    var videoPlayerQueue: DispatchQueue? = null
     private const val RANDOM_STRING_CHARS =
         "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
     internal val hexArray = "0123456789ABCDEF".toCharArray()
@@ -766,14 +752,6 @@ internal object Utilities {
         }
     }
 
-    val orCreatePlayerQueue: DispatchQueue?
-        get() {
-            if (videoPlayerQueue == null) {
-                videoPlayerQueue = DispatchQueue("playerQueue")
-            }
-            return videoPlayerQueue
-        }
-
     fun isNullOrEmpty(list: Collection<*>?): Boolean {
         return list == null || list.isEmpty()
     }
@@ -24,17 +24,32 @@ internal class WebAppImpl(
 
    private var eventHandler: IWebAppEventHandler? = null
 
+    // Events to the page, coalesced and flushed once per frame
+    private val outbox = WebEventOutbox(webView, listOf(TELEGRAM, webAppName))
+
     init {
         telegramProvider = WebBridgetProvider(webView, TELEGRAM, ::postEvent)
         defaultProvider = WebBridgetProvider(webView, webAppName, ::postEvent)
     }
 
     private val eventPublisher by lazy {
-        WebAppEventWebEventPublisher()
+        WebEventBus()
     }
 
+    // Lifecycle of the latest observer, scope of subscriptions made without one
+    @Volatile
+    private var currentLifecycle: Lifecycle? = null
+
+    private val pipeline = WebEventPipeline(
+        dispatchInBackground = { eventType, eventData -> eventPublisher.notifyBackgroundSubscribers(eventType, eventData) },
+        dispatchOnMain = { eventType, eventData, subscribersNotified ->
+            dispatchMessage(eventType, eventData, subscribersNotified)
+        }
+    )
+
     override fun destroy() {
         eventHandler = null
+        outbox.release()
         telegramProvider.release()
         defaultProvider.release()
     }
@@ -43,6 +58,10 @@ internal class WebAppImpl(
         notifyEvent(eventType, eventData)
     }
 
+    override fun postRawEventToMiniApp(eventType: String, eventData: String) {
+        outbox.post(eventType, eventData)
+    }
+
     override fun postCustomEventToMiniApp(eventData: JSONObject?) {
         notifyEvent("custom_method_invoked", eventData)
     }
@@ -56,48 +75,57 @@ internal class WebAppImpl(
     }
 
     override fun addObserver(lifecycle: Lifecycle) {
+        currentLifecycle = lifecycle
         lifecycle.addObserver(this)
     }
 
     override fun removeObserver(lifecycle: Lifecycle) {
+        if (currentLifecycle === lifecycle) {
+            currentLifecycle = null
+        }
         lifecycle.removeObserver(this)
+        // The owner outlives this observer, its onDestroy would never drop them
+        eventPublisher.unsubscribeScope(lifecycle)
     }
 
     override fun subscribeMessage(event: String, subscriber: WebEventSubscriber<JSONObject?>) {
-        eventPublisher.subscribe(event, subscriber)
+        // Replaces the previous subscriber, like before priorities existed
+        eventPublisher.replace(event, subscriber, 0, currentLifecycle)
+    }
+
+    override fun subscribeMessage(event: String, priority: Int, lifecycle: Lifecycle?, subscriber: WebEventSubscriber<JSONObject?>) {
+        eventPublisher.subscribe(event, subscriber, priority, lifecycle ?: currentLifecycle)
     }
 
     override fun unsubscribeMessage(event: String) {
         eventPublisher.unsubscribe(event)
     }
 
+    override fun unsubscribeMessage(event: String, subscriber: WebEventSubscriber<JSONObject?>) {
+        eventPublisher.unsubscribe(event, subscriber)
+    }
+
     private fun notifyEvent(event: String, eventData: JSONObject?) {
-        telegramProvider.checkWebApp(false) {
-            if (telegramProvider.isAppKnown()) {
-                telegramProvider.notifyEvent(event, eventData)
-            } else {
-                defaultProvider.notifyEvent(event, eventData)
-            }
-        }
+        outbox.post(event, eventData)
+    }
+
+    /**
+     * Event received through the WebMessage channel.
+     */
+    fun receiveWebEvent(eventType: String, eventData: String?) {
+        postEvent(eventType, eventData)
     }
 
+    // Any thread, parsing and routing happen in the pipeline
     private fun postEvent(eventType: String, eventData: String?) {
-        LogTimber.tag(TAG).d("eventType: $eventType, eventData: $eventData ")
-        var jsonEvenData: JSONObject? = null
-        if (eventData != "undefined") {
-            try {
-                jsonEvenData = JSONObject(eventData ?: "")
-            } catch (e: Exception) {
-                e.printStackTrace()
-            }
-        }
-        dispatchMessage(eventType, jsonEvenData)
+        LogTimber.tag(TAG).d { "eventType: $eventType, eventData: $eventData " }
+        pipeline.post(eventType, eventData)
     }
 
-    private fun dispatchMessage(eventType: String, eventData: JSONObject?) {
+    private fun dispatchMessage(eventType: String, eventData: JSONObject?, subscribersNotified: Boolean) {
 
         // The event has already been consumed by a subscriber
-        if(eventPublisher.notifySubscribers(eventType, eventData)){
+        if(!subscribersNotified && eventPublisher.notifySubscribers(eventType, eventData)){
             return
         }
 
@@ -109,7 +137,11 @@ internal class WebAppImpl(
 
     override fun onDestroy(owner: LifecycleOwner) {
         super.onDestroy(owner)
-        eventPublisher.unsubscribeAll()
+        // Only this owner's subscriptions, a cached WebView may already serve another one
+        eventPublisher.unsubscribeScope(owner.lifecycle)
+        if (currentLifecycle === owner.lifecycle) {
+            currentLifecycle = null
+        }
     }
 
     internal class WebBridgetProvider(private val webView: WebView,
@@ -159,7 +191,7 @@ internal class WebAppImpl(
             UiThreadUtil.runOnUiThread {
                 try {
                     webView.evaluateJavascript(script) {
-                        LogTimber.tag(TAG).d("evaluateJs  $script success!")
+                        LogTimber.tag(TAG).d { "evaluateJs  $script success!" }
                     }
                 } catch (e: Exception) {
                     e.printStackTrace()
@@ -177,29 +209,7 @@ internal class WebAppImpl(
         fun postEvent(eventType: String, eventData: String?) {
             isWebAppKnown = true
             checkWebApp = true
-            UiThreadUtil.runOnUiThread {
-                eventDispatcher.invoke(eventType, eventData)
-            }
-        }
-    }
-
-    // Implementation of publisher class
-    internal class WebAppEventWebEventPublisher : WebEventPublisher<String, JSONObject> {
-        private val subscribers: MutableMap<String, WebEventSubscriber<JSONObject?>> = mutableMapOf()
-        override fun subscribe(event:String, webEventSubscriber: WebEventSubscriber<JSONObject?>) {
-            subscribers[event] = webEventSubscriber
-        }
-
-        override fun unsubscribe(event:String) {
-            subscribers.remove(event)
-        }
-
-        override fun unsubscribeAll() {
-            subscribers.clear()
-        }
-
-        override fun notifySubscribers(event:String, message: JSONObject?): Boolean {
-            return subscribers[event]?.handleMessage(message) ?: false
+            eventDispatcher.invoke(eventType, eventData)
         }
     }
 }
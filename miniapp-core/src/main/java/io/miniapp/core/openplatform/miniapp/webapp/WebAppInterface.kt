@@ -8,11 +8,35 @@ import org.json.JSONObject
 
 interface IWebApp {
     fun postCommonEventToMiniApp(eventType: String, eventData: JSONObject?)
+
+    /**
+     * Post an event whose payload is already encoded as a JSON object literal.
+     * Implementations that can pass it on without parsing should override this.
+     */
+    fun postRawEventToMiniApp(eventType: String, eventData: String) {
+        postCommonEventToMiniApp(eventType, JSONObject(eventData))
+    }
     fun postCustomEventToMiniApp(eventData: JSONObject?)
     fun addObserver(lifecycle: Lifecycle)
     fun removeObserver(lifecycle: Lifecycle)
     fun subscribeMessage(event:String, subscriber: WebEventSubscriber<JSONObject?>)
+
+    /**
+     * Add a subscriber next to the existing ones, higher [priority] is asked first.
+     * Without a [lifecycle] the subscription belongs to the lifecycle last passed to [addObserver]
+     * and is removed when it is destroyed.
+     */
+    fun subscribeMessage(event:String, priority: Int, lifecycle: Lifecycle?, subscriber: WebEventSubscriber<JSONObject?>) {
+        subscribeMessage(event, subscriber)
+    }
     fun unsubscribeMessage(event:String)
+
+    /**
+     * Remove one subscriber of [event], implementations keeping a single one remove it.
+     */
+    fun unsubscribeMessage(event:String, subscriber: WebEventSubscriber<JSONObject?>) {
+        unsubscribeMessage(event)
+    }
     fun addEvenHandler(handler:  IWebAppEventHandler?)
     fun removeEvenHandler()
     fun destroy()
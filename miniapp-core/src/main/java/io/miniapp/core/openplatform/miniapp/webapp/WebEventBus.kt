@@ -0,0 +1,124 @@
+package io.miniapp.core.openplatform.miniapp.webapp
+
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Web event publisher with any number of subscribers per event.
+ *
+ * Subscribers are called from the highest [Subscription.priority] down, in subscription order
+ * within a priority, until one consumes the event. Each event keeps a sorted array that is
+ * replaced on every change, so dispatch is a plain array walk without locks or allocations.
+ * Subscriptions can carry a scope, e.g. a Lifecycle, to be dropped together by [unsubscribeScope].
+ */
+internal class WebEventBus : WebEventPublisher<String, JSONObject> {
+
+    /**
+     * Subscriber that only reads the payload and hands its work on, so it may be called on the
+     * event queue instead of the main thread. Internal to the SDK, host subscribers always run on main.
+     */
+    fun interface BackgroundSubscriber : WebEventSubscriber<JSONObject?>
+
+    private class Subscription(
+        val subscriber: WebEventSubscriber<JSONObject?>,
+        val priority: Int,
+        val scope: Any?
+    )
+
+    private val lock = Any()
+    private val table = ConcurrentHashMap<String, Array<Subscription>>()
+
+    override fun subscribe(event: String, webEventSubscriber: WebEventSubscriber<JSONObject?>) {
+        subscribe(event, webEventSubscriber, 0, null)
+    }
+
+    fun subscribe(event: String, subscriber: WebEventSubscriber<JSONObject?>, priority: Int, scope: Any?) {
+        synchronized(lock) {
+            addLocked(event, subscriber, priority, scope)
+        }
+    }
+
+    /**
+     * Subscribe in place of the event's other subscribers at the same [priority].
+     */
+    fun replace(event: String, subscriber: WebEventSubscriber<JSONObject?>, priority: Int, scope: Any?) {
+        synchronized(lock) {
+            removeWhere(event) { it.priority == priority }
+            addLocked(event, subscriber, priority, scope)
+        }
+    }
+
+    private fun addLocked(event: String, subscriber: WebEventSubscriber<JSONObject?>, priority: Int, scope: Any?) {
+        val current = table[event] ?: emptyArray()
+        val index = current.indexOfFirst { it.priority < priority }.let { if (it < 0) current.size else it }
+        val updated = arrayOfNulls<Subscription>(current.size + 1)
+        System.arraycopy(current, 0, updated, 0, index)
+        updated[index] = Subscription(subscriber, priority, scope)
+        System.arraycopy(current, index, updated, index + 1, current.size - index)
+        @Suppress("UNCHECKED_CAST")
+        table[event] = updated as Array<Subscription>
+    }
+
+    override fun unsubscribe(event: String) {
+        synchronized(lock) {
+            table.remove(event)
+        }
+    }
+
+    fun unsubscribe(event: String, subscriber: WebEventSubscriber<JSONObject?>) {
+        removeWhere(event) { it.subscriber === subscriber }
+    }
+
+    fun unsubscribeScope(scope: Any) {
+        synchronized(lock) {
+            table.keys.toList().forEach { event ->
+                removeWhere(event) { it.scope === scope }
+            }
+        }
+    }
+
+    override fun unsubscribeAll() {
+        synchronized(lock) {
+            table.clear()
+        }
+    }
+
+    override fun notifySubscribers(event: String, message: JSONObject?): Boolean {
+        val subscriptions = table[event] ?: return false
+        for (i in subscriptions.indices) {
+            if (subscriptions[i].subscriber.handleMessage(message)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Like [notifySubscribers], but only when every subscriber of [event] is a [BackgroundSubscriber].
+     * Returns null without calling any of them otherwise.
+     */
+    fun notifyBackgroundSubscribers(event: String, message: JSONObject?): Boolean? {
+        val subscriptions = table[event] ?: return false
+        if (subscriptions.any { it.subscriber !is BackgroundSubscriber }) {
+            return null
+        }
+        for (i in subscriptions.indices) {
+            if (subscriptions[i].subscriber.handleMessage(message)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private inline fun removeWhere(event: String, predicate: (Subscription) -> Boolean) {
+        synchronized(lock) {
+            val current = table[event] ?: return
+            val updated = current.filterNot(predicate)
+            if (updated.isEmpty()) {
+                table.remove(event)
+            } else if (updated.size != current.size) {
+                table[event] = updated.toTypedArray()
+            }
+        }
+    }
+}
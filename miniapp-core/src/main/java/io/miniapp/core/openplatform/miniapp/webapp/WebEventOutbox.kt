@@ -0,0 +1,140 @@
+package io.miniapp.core.openplatform.miniapp.webapp
+
+import android.view.Choreographer
+import android.webkit.WebView
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
+import org.json.JSONObject
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Native to web event queue flushed once per frame.
+ *
+ * Events posted during a frame are delivered by a single script that resolves the bridge
+ * object itself, so there is no separate round trip to check it exists. State events listed
+ * in [COLLAPSIBLE_EVENTS] replace a pending event of the same type instead of queueing. Sensor
+ * frames are samples rather than state, so every one of them is queued and delivered in order.
+ */
+internal class WebEventOutbox(
+    private val webView: WebView,
+    private val providers: List<String>
+) : Choreographer.FrameCallback {
+
+    companion object {
+        private const val TAG = "WebEventOutbox"
+
+        // Only the latest value of these matters to the page
+        private val COLLAPSIBLE_EVENTS = setOf(
+            "viewport_changed",
+            "safe_area_changed",
+            "content_safe_area_changed",
+            "theme_changed"
+        )
+    }
+
+    // Payloads are kept encoded, sensor frames arrive that way
+    private class PendingEvent(val event: String, var data: String?)
+
+    private val lock = Any()
+    private var pending = ArrayList<PendingEvent>()
+    private var spare = ArrayList<PendingEvent>()
+    private var scheduled = false
+    private var released = false
+
+    private val _eventsSent = AtomicLong()
+    private val _eventsCoalesced = AtomicLong()
+    private val _scriptsEvaluated = AtomicLong()
+
+    val eventsSent: Long
+        get() = _eventsSent.get()
+
+    val eventsCoalesced: Long
+        get() = _eventsCoalesced.get()
+
+    val scriptsEvaluated: Long
+        get() = _scriptsEvaluated.get()
+
+    private val scheduleRunnable = Runnable {
+        Choreographer.getInstance().postFrameCallback(this)
+    }
+
+    // Resolves the first bridge object present on the page, evaluated once per script
+    private val scriptPrefix = providers.joinToString(
+        separator = "||",
+        prefix = "(function(){var p=",
+        postfix = ";if(!p||!p.WebView)return;var r=p.WebView.receiveEvent;"
+    ) { "window.$it" }
+
+    fun post(event: String, data: JSONObject?) {
+        post(event, data?.toString())
+    }
+
+    fun post(event: String, data: String?) {
+        synchronized(lock) {
+            if (released) {
+                return
+            }
+            if (event in COLLAPSIBLE_EVENTS) {
+                pending.firstOrNull { it.event == event }?.also {
+                    it.data = data
+                    _eventsCoalesced.incrementAndGet()
+                    return
+                }
+            }
+            pending.add(PendingEvent(event, data))
+            if (scheduled) {
+                return
+            }
+            scheduled = true
+        }
+
+        if (UiThreadUtil.isOnUiThread()) {
+            scheduleRunnable.run()
+        } else {
+            UiThreadUtil.runOnUiThread(scheduleRunnable)
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        val events = synchronized(lock) {
+            scheduled = false
+            if (released || pending.isEmpty()) {
+                return
+            }
+            pending.also {
+                pending = spare
+                spare = it
+            }
+        }
+
+        val script = StringBuilder(scriptPrefix)
+        events.forEach {
+            script.append("r(").append(JSONObject.quote(it.event)).append(',')
+                .append(it.data ?: "null").append(");")
+        }
+        script.append("})()")
+
+        val count = events.size
+        events.clear()
+
+        try {
+            webView.evaluateJavascript(script.toString(), null)
+            _eventsSent.addAndGet(count.toLong())
+            _scriptsEvaluated.incrementAndGet()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        LogTimber.tag(TAG).d { "flushed $count events, sent=$eventsSent coalesced=$eventsCoalesced scripts=$scriptsEvaluated" }
+    }
+
+    fun release() {
+        synchronized(lock) {
+            released = true
+            pending.clear()
+        }
+        UiThreadUtil.runOnUiThread {
+            UiThreadUtil.cancelRunOnUIThread(scheduleRunnable)
+            Choreographer.getInstance().removeFrameCallback(this)
+        }
+    }
+}
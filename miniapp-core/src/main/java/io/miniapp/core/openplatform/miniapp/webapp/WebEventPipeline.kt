@@ -0,0 +1,92 @@
+package io.miniapp.core.openplatform.miniapp.webapp
+
+import android.os.SystemClock
+import io.miniapp.core.openplatform.miniapp.utils.LogTimber
+import io.miniapp.core.openplatform.miniapp.utils.UiThreadUtil
+import io.miniapp.core.openplatform.miniapp.utils.Utilities
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Parses web_app_* events off the main thread and routes them by a fixed table.
+ *
+ * Payloads are decoded on [Utilities.webEventQueue], in arrival order, and posted to the main
+ * thread already parsed. Events in [BACKGROUND_EVENTS] are dispatched right on the queue when
+ * all their subscribers are the SDK's own [WebEventBus.BackgroundSubscriber]s; a host subscriber
+ * sends the event to the main thread like any other. Those SDK subscribers only launch
+ * coroutines on the main thread, so their work still queues behind events posted there before.
+ * The time from arrival to the end of dispatch is recorded per event type in [latency].
+ */
+internal class WebEventPipeline(
+    // Null when the event has subscribers that must run on the main thread
+    private val dispatchInBackground: (String, JSONObject?) -> Boolean?,
+    // The flag tells whether subscribers were already notified in the background
+    private val dispatchOnMain: (String, JSONObject?, Boolean) -> Unit
+) {
+
+    companion object {
+        private const val TAG = "WebEventPipeline"
+
+        // The SDK's subscribers of these only read the payload and launch coroutines
+        private val BACKGROUND_EVENTS = setOf(
+            "web_app_invoke_custom_method",
+            "web_app_biometry_get_info"
+        )
+
+        val latency = LatencyHistogram()
+    }
+
+    /**
+     * Called on the JavaBridge thread, returns right away so the page is not blocked.
+     */
+    fun post(eventType: String, eventData: String?) {
+        val receivedAt = SystemClock.elapsedRealtimeNanos()
+        Utilities.webEventQueue.postRunnable {
+            val data = parse(eventData)
+            val consumed = if (eventType in BACKGROUND_EVENTS) dispatchInBackground(eventType, data) else null
+            if (consumed == true) {
+                latency.record(eventType, receivedAt)
+                return@postRunnable
+            }
+            UiThreadUtil.runOnUiThread {
+                dispatchOnMain(eventType, data, consumed != null)
+                latency.record(eventType, receivedAt)
+            }
+        }
+    }
+
+    private fun parse(eventData: String?): JSONObject? {
+        if (eventData == null || eventData == "undefined" || eventData.isEmpty()) {
+            return null
+        }
+        return try {
+            JSONObject(eventData)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    /**
+     * Dispatch latency per event type in buckets of under 1, 4, 16, 64 ms and above.
+     */
+    class LatencyHistogram {
+        private val bucketLimitsMs = longArrayOf(1, 4, 16, 64)
+        private val histograms = ConcurrentHashMap<String, AtomicLongArray>()
+
+        fun record(eventType: String, startNanos: Long) {
+            val elapsedMs = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000
+            var bucket = bucketLimitsMs.indexOfFirst { elapsedMs < it }
+            if (bucket < 0) {
+                bucket = bucketLimitsMs.size
+                LogTimber.tag(TAG).d("$eventType took ${elapsedMs}ms")
+            }
+            histograms.getOrPut(eventType) { AtomicLongArray(bucketLimitsMs.size + 1) }.incrementAndGet(bucket)
+        }
+
+        fun snapshot(): Map<String, LongArray> {
+            return histograms.mapValues { (_, counts) -> LongArray(counts.length()) { counts.get(it) } }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// web to native channel shared by the bridge scripts, see WebMessageBridge
+if (!window.__miniapp_bridge) {
+    (function () {
+        const port = window.MiniAppBridgePort;
+        const pending = {};
+        let nextId = 1;
+        if (port) {
+            port.addEventListener('message', e => {
+                let reply;
+                try {
+                    reply = JSON.parse(e.data);
+                } catch (_) {
+                    return;
+                }
+                const callback = reply && pending[reply.id];
+                if (callback) {
+                    delete pending[reply.id];
+                    callback(reply);
+                }
+            });
+        }
+        const request = (header, encode) => new Promise((resolve, reject) => {
+            const id = nextId++;
+            pending[id] = reply => reply.error ? reject(reply.error) : resolve(reply.result);
+            port.postMessage(encode(Object.assign({ id }, header)));
+        });
+        window.__miniapp_bridge = {
+            hasPort: !!port,
+            // Fire and forget, over the port when there is one, else the JavaScript interface
+            post: (type, event, data) => {
+                if (port) {
+                    port.postMessage(JSON.stringify({ type, event, data }));
+                } else if (window.RunTimeWebviewProxy && window.RunTimeWebviewProxy[type]) {
+                    window.RunTimeWebviewProxy[type](event, data);
+                }
+            },
+            // Resolves with the handler's result, rejects with its error. Port only
+            request: (type, event, data) => request({ type, event, data }, JSON.stringify),
+            // Binary frame: header length, JSON header, raw bytes. Port only
+            requestFrame: (header, buffer) => request(header, message => {
+                const bytes = new TextEncoder().encode(JSON.stringify(message));
+                const frame = new Uint8Array(4 + bytes.length + buffer.byteLength);
+                new DataView(frame.buffer).setUint32(0, bytes.length);
+                frame.set(bytes, 4);
+                frame.set(new Uint8Array(buffer), 4 + bytes.length);
+                return frame.buffer;
+            })
+        };
+    })();
+}
@@ -51,13 +51,13 @@ if (!window.__tg__webview_set) {
             awaitingResponse = true;
             whiletouchstart = true;
             if (isImageViewer()) {
-                if (window.RunTimeWebviewProxy) {
+                if (window.__miniapp_bridge) {
                     const allowScrollX = window.visualViewport && window.visualViewport.offsetLeft == 0 && !swipesDisabled('x');
                     const allowScrollY = window.visualViewport && window.visualViewport.offsetTop  == 0 && !swipesDisabled('y');
                     if (DEBUG) {
                         console.log('tgbrowser allowScroll sent after "touchstart": x=' + allowScrollX + ' y=' + allowScrollY + ' inside image viewer');
                     }
-                    window.RunTimeWebviewProxy.post('allowScroll', JSON.stringify([ allowScrollX, allowScrollY ]));
+                    window.__miniapp_bridge.post('post', 'allowScroll', JSON.stringify([ allowScrollX, allowScrollY ]));
                 }
                 awaitingResponse = false;
             }
@@ -71,13 +71,13 @@ if (!window.__tg__webview_set) {
             if (awaitingResponse) {
                 setTimeout(() => {
                     if (awaitingResponse) {
-                        if (window.RunTimeWebviewProxy) {
+                        if (window.__miniapp_bridge) {
                             const allowScrollX = !prevented && (!window.visualViewport || window.visualViewport.offsetLeft == 0) && !mutatedWhileTouch && !swipesDisabled('x');
                             const allowScrollY = !prevented && (!window.visualViewport || window.visualViewport.offsetTop == 0)  && !mutatedWhileTouch && !swipesDisabled('y');
                             if (DEBUG) {
                                 console.log('tgbrowser allowScroll sent after "touchmove": x=' + allowScrollX + ' y=' + allowScrollY, { prevented, mutatedWhileTouch });
                             }
-                            window.RunTimeWebviewProxy.post('allowScroll', JSON.stringify([ allowScrollX, allowScrollY ]));
+                            window.__miniapp_bridge.post('post', 'allowScroll', JSON.stringify([ allowScrollX, allowScrollY ]));
                         }
                         prevented = false;
                         awaitingResponse = false;
@@ -97,11 +97,11 @@ if (!window.__tg__webview_set) {
                 console.log('tgbrowser scroll on' + e.target + ' scrollLeft=' + e.target.scrollLeft + ' scrollTop=' + e.target.scrollTop);
             }
             if (awaitingResponse) {
-                if (window.RunTimeWebviewProxy) {
+                if (window.__miniapp_bridge) {
                     if (DEBUG) {
                         console.log('tgbrowser allowScroll sent after "scroll": x=' + allowScrollX + ' y=' + allowScrollY, { prevented, mutatedWhileTouch, scrollLeft: e.target.scrollLeft, scrollTop: e.target.scrollTop });
                     }
-                    window.RunTimeWebviewProxy.post('allowScroll', JSON.stringify([allowScrollX, allowScrollY]));
+                    window.__miniapp_bridge.post('post', 'allowScroll', JSON.stringify([allowScrollX, allowScrollY]));
                 }
                 awaitingResponse = false;
             }
@@ -182,18 +182,18 @@ if (!window.__tg__webview_set) {
                 __tg__metaColor("theme-background-color") ||
                 __tg__backgroundColor()
             ));
-            if (window.RunTimeWebviewProxy) {
+            if (window.__miniapp_bridge) {
                 if (actionBarColor != __tg__lastActionBarColor) {
                     if (DEBUG) {
                         console.log('tgbrowser actionbar color', actionBarColor);
                     }
-                    window.RunTimeWebviewProxy.post("actionBarColor", __tg__lastActionBarColor = actionBarColor);
+                    window.__miniapp_bridge.post('post', "actionBarColor", __tg__lastActionBarColor = actionBarColor);
                 }
                 if (navigationBarColor != __tg__lastNavigationBarColor) {
                     if (DEBUG) {
                         console.log('tgbrowser navbar color', navigationBarColor);
                     }
-                    window.RunTimeWebviewProxy.post("navigationBarColor", __tg__lastNavigationBarColor = navigationBarColor);
+                    window.__miniapp_bridge.post('post', "navigationBarColor", __tg__lastNavigationBarColor = navigationBarColor);
                 }
             }
         };
@@ -226,11 +226,11 @@ setTimeout(function () {
         (document.querySelector('meta[property="og:site_name"]') || {}).content ||
         (document.querySelector('meta[property="og:title"]') || {}).content
     );
-    if (window.RunTimeWebviewProxy && window.RunTimeWebviewProxy.post) {
+    if (window.__miniapp_bridge) {
         if (site_name) {
-            window.RunTimeWebviewProxy.post('siteName', site_name);
+            window.__miniapp_bridge.post('post', 'siteName', site_name);
         } else {
-            window.RunTimeWebviewProxy.post('siteNameEmpty');
+            window.__miniapp_bridge.post('post', 'siteNameEmpty');
         }
     }
     if (window.__tg__listenColors) {
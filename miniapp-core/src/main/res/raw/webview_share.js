@@ -10,20 +10,31 @@ if (window.navigator && !window.navigator.share) {
         if (typeof data !== 'object' || !data.url && !data.title && !data.text && !data.files) {
             return new Promise((_, reject) => reject(new DOMException("share(...) receives only object with either url, title, text or files", "TypeError")))
         }
-        if (!window.RunTimeWebviewProxy) {
+        const bridge = window.__miniapp_bridge
+        if (!window.RunTimeWebviewProxy && !(bridge && bridge.hasPort)) {
             return new Promise((_, reject) => reject(new DOMException("Must be handling a user gesture to perform a share", "NotAllowedError")))
         }
         const { url, title, text } = data
+        const json = JSON.stringify({ url, title, text })
         const file = (Array.isArray(data.file) ? data.file[0] : data.file) || data.files && data.files[0]
-        if (file && file.arrayBuffer && file.size < 1024 * 1024 * 3) {
+        const maxFileSize = 1024 * 1024 * 3
+        const hasFile = file && file.arrayBuffer && file.size < maxFileSize
+        if (bridge && bridge.hasPort) {
+            // The reply settles the share, its error is the rejection reason
+            const sent = hasFile
+                ? file.arrayBuffer().then(buffer => bridge.requestFrame({ type: 'resolveShare', json, fileName: file.name, fileMimeType: file.type }, buffer))
+                : bridge.request('resolveShare', '', json)
+            sent.then(() => window.navigator.__share__receive && window.navigator.__share__receive(null),
+                reason => window.navigator.__share__receive && window.navigator.__share__receive(reason || 'error'))
+        } else if (hasFile) {
             file.arrayBuffer().then(buffer => {
                 const bytes = Array.from(new Uint8Array(buffer))
                 const filename = file.name
                 const filetype = file.type
-                window.RunTimeWebviewProxy.resolveShare(JSON.stringify({ url, title, text }), bytes, filename, filetype);
+                window.RunTimeWebviewProxy.resolveShare(json, bytes, filename, filetype);
             })
         } else {
-            window.RunTimeWebviewProxy.resolveShare(JSON.stringify({ url, title, text }), null, null, null);
+            window.RunTimeWebviewProxy.resolveShare(json, null, null, null);
         }
         return new Promise((resolve, reject) => {
             window.navigator.__share__receive = reason => {
@@ -0,0 +1,121 @@
+package io.miniapp.core.openplatform
+
+import io.miniapp.core.openplatform.common.data.OpenServiceRemoteDataSource
+import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
+import io.miniapp.core.openplatform.common.network.interceptors.HeadInterceptor
+import io.miniapp.core.openplatform.common.network.interceptors.SessionInterceptor
+import io.miniapp.core.openplatform.common.network.interceptors.TokenAuthenticator
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs api calls against a local server that revokes the token, to check how many token
+ * requests a burst of 401s costs.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class AuthManagerTest {
+
+    companion object {
+        private const val PARALLEL_REQUESTS = 32
+        private const val AUTH_LATENCY_MS = 200L
+    }
+
+    private val server = MockWebServer()
+    private val authCalls = AtomicInteger()
+
+    // The only token the server accepts
+    @Volatile
+    private var validToken: String? = null
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val path = request.requestUrl!!.encodedPath
+                return when {
+                    path.endsWith("/users/auth") -> {
+                        val token = "token${authCalls.incrementAndGet()}"
+                        // Slow enough for the whole burst to be rejected while it is in flight
+                        Thread.sleep(AUTH_LATENCY_MS)
+                        validToken = token
+                        MockResponse().setBody("{\"access_token\":\"$token\"}")
+                    }
+
+                    request.getHeader("Authorization") != "Bearer $validToken" -> MockResponse().setResponseCode(401)
+
+                    else -> MockResponse().setBody("{\"id\":\"${path.substringAfterLast('/')}\"}")
+                }
+            }
+        }
+        server.start()
+
+        // The production client, without the TLS only connection specs
+        OkHttpClientProvider.setClient(
+            OkHttpClient.Builder()
+                .addInterceptor(HeadInterceptor())
+                .addInterceptor(SessionInterceptor())
+                .authenticator(TokenAuthenticator())
+                .build()
+        )
+        AuthManager.init(RuntimeEnvironment.getApplication(), "verifier", server.url("/").toString()) { "id-token" }
+    }
+
+    @After
+    fun tearDown() {
+        runBlocking { AuthManager.signOut() }
+        OkHttpClientProvider.setClient(null)
+        server.shutdown()
+    }
+
+    @Test
+    fun burstOfUnauthorizedRequestsRefreshesTheTokenOnce() {
+        val dataSource = OpenServiceRemoteDataSource()
+        runBlocking { dataSource.requestMiniApp("signed-in").first() }
+        assertEquals(1, authCalls.get())
+
+        validToken = "revoked"
+        val ids = (1..PARALLEL_REQUESTS).map { "app$it" }
+        val apps = runBlocking(Dispatchers.IO) {
+            ids.map { async { dataSource.requestMiniApp(it).first() } }.awaitAll()
+        }
+
+        assertEquals(ids, apps.map { it.id })
+        assertEquals(2, authCalls.get())
+        assertEquals("token2", AuthManager.getToken())
+    }
+
+    @Test
+    fun signOutFailsTheRequestsWaitingForTheRefresh() {
+        val result = runBlocking(Dispatchers.IO) {
+            val waiter = async { AuthManager.signIn() }
+            // Let the refresh reach the slow auth endpoint
+            delay(AUTH_LATENCY_MS / 2)
+            AuthManager.signOut()
+            waiter.await()
+        }
+
+        assertTrue(result.exceptionOrNull() is AuthManager.SignedOutException)
+        assertNull(AuthManager.getToken())
+    }
+}
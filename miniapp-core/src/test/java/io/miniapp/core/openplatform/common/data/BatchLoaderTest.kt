@@ -0,0 +1,166 @@
+package io.miniapp.core.openplatform.common.data
+
+import io.miniapp.core.openplatform.AuthManager
+import io.miniapp.core.openplatform.common.network.OkHttpClientProvider
+import io.miniapp.core.openplatform.common.network.interceptors.HeadInterceptor
+import io.miniapp.core.openplatform.common.network.interceptors.SessionInterceptor
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * Counts the requests mini app lookups cost through OpenServiceRepository's loader, against a
+ * local stand-in for the api.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class BatchLoaderTest {
+
+    private val server = MockWebServer()
+
+    // Ids the batch endpoint pretends not to know
+    private val unknownToBatch = setOf("missing")
+
+    // Mini app requests only, the sign in is left out
+    private val appRequests = LinkedBlockingQueue<RecordedRequest>()
+
+    private lateinit var remote: OpenServiceRemoteDataSource
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val url = request.requestUrl!!
+                if (url.encodedPath.endsWith("/users/auth")) {
+                    return MockResponse().setBody("{\"access_token\":\"token\"}")
+                }
+                appRequests.add(request)
+                return if (url.encodedPath.endsWith("/batch-get")) {
+                    val items = url.queryParameterValues("id")
+                        .filterNot { it in unknownToBatch }
+                        .joinToString(",") { app(it) }
+                    MockResponse().setBody("{\"items\":[$items]}")
+                        .setHeader("Last-Modified", "Wed, 01 May 2024 00:00:00 GMT")
+                } else {
+                    MockResponse().setBody(app(url.pathSegments.last()))
+                        .setHeader("ETag", "\"${url.pathSegments.last()}\"")
+                }
+            }
+        }
+        server.start()
+
+        // The production client, without the TLS only connection specs
+        OkHttpClientProvider.setClient(
+            OkHttpClient.Builder()
+                .addInterceptor(HeadInterceptor())
+                .addInterceptor(SessionInterceptor())
+                .build()
+        )
+        AuthManager.init(RuntimeEnvironment.getApplication(), "verifier", server.url("/").toString()) { "id-token" }
+        remote = OpenServiceRemoteDataSource()
+    }
+
+    @After
+    fun tearDown() {
+        runBlocking { AuthManager.signOut() }
+        OkHttpClientProvider.setClient(null)
+        server.shutdown()
+    }
+
+    @Test
+    fun lookupsInOneWindowCostOneRequest() {
+        val loader = loader(windowMs = 200)
+        val ids = (1..8).map { "app$it" }
+
+        val apps = runBlocking {
+            ids.map { async { loader.load(it) } }.awaitAll()
+        }
+
+        assertEquals(ids, apps.map { it.body!!.id })
+        assertEquals(1, appRequests.size)
+        assertEquals(ids, appRequests.poll()!!.requestUrl!!.queryParameterValues("id"))
+    }
+
+    @Test
+    fun batchItemsKeepOnlyTheBatchLastModified() {
+        val loader = loader(windowMs = 200)
+
+        val apps = runBlocking {
+            listOf("app1", "app2").map { async { loader.load(it) } }.awaitAll()
+        }
+
+        apps.forEach {
+            assertNull(it.etag)
+            assertEquals("Wed, 01 May 2024 00:00:00 GMT", it.lastModified)
+        }
+    }
+
+    @Test
+    fun fullBatchIsSentWithoutWaitingForTheWindow() {
+        val loader = loader(windowMs = 60_000, maxBatchSize = 4)
+
+        runBlocking {
+            (1..8).map { id -> async { loader.load("app$id") } }.awaitAll()
+        }
+
+        assertEquals(2, appRequests.size)
+    }
+
+    @Test
+    fun duplicateLookupsShareOneKey() {
+        val loader = loader(windowMs = 200)
+
+        runBlocking {
+            listOf("app1", "app1", "app2").map { async { loader.load(it) } }.awaitAll()
+        }
+
+        assertEquals(1, appRequests.size)
+        assertEquals(listOf("app1", "app2"), appRequests.poll()!!.requestUrl!!.queryParameterValues("id"))
+    }
+
+    @Test
+    fun loneLookupAndMissingKeysUseTheSingleEndpoint() {
+        val loader = loader(windowMs = 200)
+
+        val app = runBlocking { loader.load("app1") }
+        assertEquals("/api/v1/miniapps/app1", appRequests.poll()!!.requestUrl!!.encodedPath)
+        assertEquals("\"app1\"", app.etag)
+
+        val apps = runBlocking {
+            listOf("app2", "missing").map { async { loader.load(it) } }.awaitAll()
+        }
+        assertEquals(listOf("app2", "missing"), apps.map { it.body!!.id })
+        assertEquals(2, appRequests.size)
+    }
+
+    @Test
+    fun zeroWindowDisablesBatching() {
+        val loader = loader(windowMs = 0)
+
+        runBlocking {
+            (1..3).map { id -> async { loader.load("app$id") } }.awaitAll()
+        }
+
+        assertEquals(3, appRequests.size)
+    }
+
+    private fun loader(windowMs: Long, maxBatchSize: Int = 20) =
+        OpenServiceRepository.newMiniAppLoader({ remote }, windowMs, maxBatchSize)
+
+    private fun app(id: String) = "{\"id\":\"$id\",\"title\":\"App $id\"}"
+}
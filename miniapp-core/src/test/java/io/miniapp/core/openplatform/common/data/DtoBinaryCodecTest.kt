@@ -0,0 +1,111 @@
+package io.miniapp.core.openplatform.common.data
+
+import io.miniapp.core.openplatform.common.apis.data.AppSettings
+import io.miniapp.core.openplatform.common.apis.data.DAppDto
+import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
+import io.miniapp.core.openplatform.common.network.MoshiProvider
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DtoBinaryCodecTest {
+
+    private val settings = AppSettings(
+        viewStyle = "modal",
+        navigationStyle = "custom",
+        allowHorizontalSwipe = false,
+        allowVerticalSwipe = true,
+        disableCache = null,
+        cacheTtl = 3_600_000L,
+        cacheIdleTimeout = null
+    )
+
+    @Test
+    fun miniAppRoundTrip() {
+        val app = miniApp(settings)
+        assertEquals(app, DtoBinaryCodec.decodeMiniApp(DtoBinaryCodec.encode(app)))
+    }
+
+    @Test
+    fun miniAppWithoutOptionsAndNullsRoundTrip() {
+        val app = MiniAppDto(
+            id = "1",
+            identifier = null,
+            title = "",
+            description = null,
+            shortDescription = null,
+            iconUrl = null,
+            bannerUrl = null,
+            botId = null,
+            botName = null,
+            createAt = -1L,
+            updateAt = null,
+            options = null,
+            isShareEnabled = null
+        )
+        assertEquals(app, DtoBinaryCodec.decodeMiniApp(DtoBinaryCodec.encode(app)))
+    }
+
+    @Test
+    fun dAppRoundTrip() {
+        val dApp = DAppDto(
+            id = "d1",
+            title = "DApp",
+            url = "https://example.com/?q=1",
+            description = null,
+            shortDescription = "short",
+            iconUrl = null,
+            bannerUrl = null,
+            createAt = 1_700_000_000_000L,
+            updateAt = Long.MAX_VALUE,
+            isShareEnabled = false
+        )
+        assertEquals(dApp, DtoBinaryCodec.decodeDApp(DtoBinaryCodec.encode(dApp)))
+    }
+
+    @Test
+    fun entryOfThePreviousSchemaIsRefetched() {
+        // Version 1 had no cache fields in the options, its entries must not be read as version 2
+        val entry = DtoBinaryCodec.encode(miniApp(settings))
+        entry[1] = 1
+        assertNull(DtoBinaryCodec.decodeMiniApp(entry))
+    }
+
+    @Test
+    fun truncatedEntryIsRefetched() {
+        val entry = DtoBinaryCodec.encode(miniApp(settings))
+        assertNull(DtoBinaryCodec.decodeMiniApp(entry.copyOf(entry.size / 2)))
+    }
+
+    @Test
+    fun legacyJsonEntryIsStillRead() {
+        val app = miniApp(settings)
+        val json = MoshiProvider.toJson(app).toByteArray(Charsets.UTF_8)
+        assertEquals(app, DtoBinaryCodec.decodeMiniApp(json))
+    }
+
+    @Test
+    fun binaryEntryIsSmallerThanJson() {
+        val app = miniApp(settings)
+        val json = MoshiProvider.toJson(app).toByteArray(Charsets.UTF_8)
+        val binary = DtoBinaryCodec.encode(app)
+        assertTrue("binary ${binary.size}B, json ${json.size}B", binary.size < json.size)
+    }
+
+    private fun miniApp(options: AppSettings?) = MiniAppDto(
+        id = "4242",
+        identifier = "wallet",
+        title = "Wallet ✓",
+        description = "A longer description of the app that is shown on its info page.",
+        shortDescription = "Wallet",
+        iconUrl = "https://cdn.example.com/icons/wallet.png",
+        bannerUrl = "https://cdn.example.com/banners/wallet.png",
+        botId = "7",
+        botName = "walletbot",
+        createAt = 1_700_000_000_000L,
+        updateAt = 1_710_000_000_000L,
+        options = options,
+        isShareEnabled = true
+    )
+}
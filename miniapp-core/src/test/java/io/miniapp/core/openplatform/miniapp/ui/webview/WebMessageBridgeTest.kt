@@ -0,0 +1,58 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import org.json.JSONObject
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Decoding of the binary frames webview_bridge.js posts over the WebMessage channel.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class WebMessageBridgeTest {
+
+    @Test
+    fun headerSurvivesTheFrame() {
+        val (header, payload) = WebMessageBridge.decodeFrame(binaryFrame(byteArrayOf(1, 2, 3)))
+        assertEquals("resolveShare", header.getString("type"))
+        assertEquals("a.png", header.getString("fileName"))
+        assertArrayEquals(byteArrayOf(1, 2, 3), payload)
+    }
+
+    @Test
+    fun largestShareSurvivesTheFrame() {
+        val file = Random(0).nextBytes(3 * 1024 * 1024 - 1)
+        assertArrayEquals(file, WebMessageBridge.decodeFrame(binaryFrame(file)).second)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun oversizedFrameIsRejected() {
+        WebMessageBridge.decodeFrame(ByteArray(WebMessageBridge.MAX_BINARY_BYTES + 1))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun headerLongerThanTheFrameIsRejected() {
+        WebMessageBridge.decodeFrame(ByteBuffer.allocate(8).putInt(64).array())
+    }
+
+    private fun binaryFrame(file: ByteArray): ByteArray {
+        val header = JSONObject()
+            .put("id", 1)
+            .put("type", "resolveShare")
+            .put("json", "{}")
+            .put("fileName", "a.png")
+            .toString()
+            .toByteArray(Charsets.UTF_8)
+        return ByteBuffer.allocate(4 + header.size + file.size)
+            .putInt(header.size)
+            .put(header)
+            .put(file)
+            .array()
+    }
+}
@@ -0,0 +1,243 @@
+package io.miniapp.core.openplatform.miniapp.ui.webview
+
+import android.net.Uri
+import android.webkit.WebResourceRequest
+import android.webkit.WebResourceResponse
+import io.miniapp.core.openplatform.common.apis.data.MiniAppDto
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Serves a fake mini app package from a local stand-in server and checks what the cache keeps.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class WebResourceCacheTest {
+
+    private val server = MockWebServer()
+    private val deploys = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val path = request.path.orEmpty()
+                return when {
+                    path.endsWith("/private.json") -> MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setHeader("Cache-Control", "private, max-age=60")
+                        .setBody("{\"user\":1}")
+
+                    path.endsWith("/personal.html") -> MockResponse()
+                        .setHeader("Content-Type", "text/html")
+                        .setHeader("Vary", "Accept-Encoding, Cookie")
+                        .setBody("<p>hi</p>")
+
+                    path.endsWith("/stale.js") && request.getHeader("If-None-Match") == "\"s1\"" -> MockResponse()
+                        .setResponseCode(304)
+                        .setHeader("Cache-Control", "max-age=600")
+
+                    path.endsWith("/stale.js") -> MockResponse()
+                        .setHeader("Content-Type", "application/javascript")
+                        .setHeader("Cache-Control", "max-age=0")
+                        .setHeader("ETag", "\"s1\"")
+                        .setBody("stale")
+
+                    path.endsWith("/changing.js") -> {
+                        val deploy = deploys.incrementAndGet()
+                        MockResponse()
+                            .setHeader("Content-Type", "application/javascript")
+                            .setHeader("Cache-Control", "max-age=0")
+                            .setHeader("ETag", "\"c$deploy\"")
+                            .setBody("deploy $deploy")
+                    }
+
+                    request.getHeader("If-None-Match") == "\"v1\"" -> MockResponse().setResponseCode(304)
+
+                    else -> MockResponse()
+                        .setHeader("Content-Type", "application/javascript; charset=utf-8")
+                        .setHeader("Content-Security-Policy", "default-src 'self'")
+                        .setHeader("Cache-Control", "max-age=600")
+                        .setHeader("ETag", "\"v1\"")
+                        .setBody("console.log('$path')")
+                }
+            }
+        }
+        server.start()
+        runBlocking {
+            WebResourceCache.init(RuntimeEnvironment.getApplication(), 10L * 1024 * 1024)?.join()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        WebResourceCache.clear()
+        server.shutdown()
+    }
+
+    @Test
+    fun missIsFetchedOnceThenServedFromDisk() {
+        val url = server.url("/app/main.js").toString()
+        val app = app("one", 1)
+
+        val first = WebResourceCache.intercept(app, request(url))
+        assertEquals("console.log('/app/main.js')", first.readText())
+        assertEquals(1, server.requestCount)
+
+        val second = WebResourceCache.intercept(app, request(url))
+        assertEquals("console.log('/app/main.js')", second.readText())
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun hitsReplayStoredHeadersWithoutWildcardCors() {
+        val url = server.url("/app/headers.js").toString()
+        val app = app("two", 1)
+
+        WebResourceCache.intercept(app, request(url)).readText()
+        val hit = WebResourceCache.intercept(app, request(url))!!
+
+        assertEquals("default-src 'self'", hit.responseHeaders["Content-Security-Policy"])
+        assertEquals("\"v1\"", hit.responseHeaders["ETag"])
+        assertNull(hit.responseHeaders["Access-Control-Allow-Origin"])
+        assertEquals("application/javascript", hit.mimeType)
+        hit.data.close()
+    }
+
+    @Test
+    fun personalResponsesAreNotStored() {
+        val app = app("three", 1)
+        listOf("/app/private.json", "/app/personal.html").forEach { path ->
+            val url = server.url(path).toString()
+            WebResourceCache.intercept(app, request(url)).readText()
+            WebResourceCache.intercept(app, request(url)).readText()
+        }
+        assertEquals(4, server.requestCount)
+    }
+
+    @Test
+    fun onlySafePageHeadersAreForwarded() {
+        val url = server.url("/app/forwarded.js").toString()
+        val headers = mapOf("Cookie" to "session=secret", "Authorization" to "Bearer secret", "Accept-Language" to "en")
+
+        WebResourceCache.intercept(app("four", 1), request(url, headers)).readText()
+
+        val recorded = server.takeRequest()
+        assertNull(recorded.getHeader("Cookie"))
+        assertNull(recorded.getHeader("Authorization"))
+        assertEquals("en", recorded.getHeader("Accept-Language"))
+    }
+
+    @Test
+    fun newVersionRevalidatesUnchangedResources() {
+        val url = server.url("/app/stable.js").toString()
+
+        WebResourceCache.intercept(app("five", 1), request(url)).readText()
+        server.takeRequest()
+
+        val revalidated = WebResourceCache.intercept(app("five", 2), request(url))
+        assertEquals("console.log('/app/stable.js')", revalidated.readText())
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"))
+
+        // The previous version gave its copy away, the new one serves it without the network
+        WebResourceCache.intercept(app("five", 2), request(url)).readText()
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun bodyClosedEarlyIsNotStored() {
+        val url = server.url("/app/partial.js").toString()
+        val app = app("six", 1)
+
+        val response = WebResourceCache.intercept(app, request(url))
+        assertNotNull(response)
+        response!!.data.close()
+
+        WebResourceCache.intercept(app, request(url)).readText()
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun staleEntryIsServedThenRevalidatedInTheBackground() {
+        val url = server.url("/app/stale.js").toString()
+        val app = app("seven", 1)
+
+        WebResourceCache.intercept(app, request(url)).readText()
+        server.takeRequest()
+
+        // Past max-age, served from disk while a conditional request goes out
+        assertEquals("stale", WebResourceCache.intercept(app, request(url)).readText())
+        val revalidation = server.takeRequest(5, TimeUnit.SECONDS)
+        assertNotNull(revalidation)
+        assertEquals("\"s1\"", revalidation!!.getHeader("If-None-Match"))
+        awaitBackgroundWork()
+
+        // The 304 gave the entry a new lifetime
+        assertEquals("stale", WebResourceCache.intercept(app, request(url)).readText())
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun redeployedResourceReplacesTheStaleEntry() {
+        val url = server.url("/app/changing.js").toString()
+        val app = app("eight", 1)
+
+        assertEquals("deploy 1", WebResourceCache.intercept(app, request(url)).readText())
+        assertEquals("deploy 1", WebResourceCache.intercept(app, request(url)).readText())
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS))
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS))
+        awaitBackgroundWork()
+
+        assertEquals("deploy 2", WebResourceCache.intercept(app, request(url)).readText())
+    }
+
+    // The revalidation is written to the index right after its response
+    private fun awaitBackgroundWork() {
+        Thread.sleep(300)
+    }
+
+    private fun WebResourceResponse?.readText(): String {
+        assertNotNull(this)
+        return this!!.data.use { it.readBytes().toString(Charsets.UTF_8) }
+    }
+
+    private fun request(url: String, headers: Map<String, String> = emptyMap()) = object : WebResourceRequest {
+        override fun getUrl(): Uri = Uri.parse(url)
+        override fun isForMainFrame() = false
+        override fun isRedirect() = false
+        override fun hasGesture() = false
+        override fun getMethod() = "GET"
+        override fun getRequestHeaders() = headers
+    }
+
+    private fun app(id: String, version: Long) = MiniAppDto(
+        id = id,
+        identifier = null,
+        title = null,
+        description = null,
+        shortDescription = null,
+        iconUrl = null,
+        bannerUrl = null,
+        botId = null,
+        botName = null,
+        createAt = null,
+        updateAt = version,
+        options = null,
+        isShareEnabled = null
+    )
+}